@@ -27,4 +27,13 @@ public abstract class BaseController<M extends BaseModel>
     public abstract void initialize();
 
 
+    /**
+     * Releases the model's event subscriptions. Called when the window is closed for good
+     */
+    public void dispose()
+    {
+        model.dispose();
+    }
+
+
 }
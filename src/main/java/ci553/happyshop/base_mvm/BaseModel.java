@@ -2,10 +2,21 @@ package ci553.happyshop.base_mvm;
 
 
 import ci553.happyshop.utility.handlers.ExecutorHandler;
+import ci553.happyshop.utility.handlers.SerialExecutor;
+import javafx.application.Platform;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 /**
  * Abstract Class from which Models derive shared behaviour.
@@ -13,18 +24,217 @@ import java.util.concurrent.ExecutorService;
  */
 public abstract class BaseModel
 {
+    protected static final int PRODUCT_PAGE_SIZE = 200;    // Products fetched per page when loading the catalogue
+
     protected final Logger logger = LogManager.getLogger();
-    protected final ExecutorService executorService;    // Each Model has its own separate executor thread for db queries
+    protected final ExecutorService executorService;    // Task group for db queries, with limited concurrency per model type
+    protected final Executor writeExecutor;             // Runs this model's writes one at a time, in the order of the clicks
+    private final KeyedTaskScheduler taskScheduler;     // Coalesces repeated loads on the executor
+    private final List<Runnable> subscriptions = new ArrayList<>();     // Removes each event subscription on dispose
 
 
     /**
-     * Creates a new BaseModel. Delegates to ExecutorHandler to create an executor service with the class name
+     * Creates a new BaseModel. Delegates to ExecutorHandler to get the task group named after the class
      * of the inheritor: <code>getClass().getSimpleName()</code> executed on child classes will retrieve their name instead.
      * <p>
-     * For example, CustomerModel inherits BaseModel. Its executor will be named CustomerModel-Executor
+     * For example, CustomerModel inherits BaseModel. Its tasks run on virtual threads in the CustomerModel group,
+     * which is shared by every CustomerModel, so opening a screen again does not start another thread
      */
     protected BaseModel()
     {
-        this.executorService = ExecutorHandler.getExecutorService(getClass().getSimpleName() + "-Executor");
+        this.executorService = ExecutorHandler.getTaskGroup(getClass().getSimpleName());
+        this.writeExecutor = new SerialExecutor(executorService);
+        this.taskScheduler = new KeyedTaskScheduler(executorService);
+    }
+
+
+    /**
+     * Registers the model's event subscriptions and listeners. Call once, straight after the constructor and
+     * before <code>bootstrap</code>, so no listener can run against a partly constructed model.
+     * Models without listeners do not need to override it
+     */
+    public void bind()
+    {
+    }
+
+
+    /**
+     * Keeps the unsubscriber returned by <code>ChangeEventBus.subscribe</code>, so <code>dispose</code> can remove
+     * the subscription. Call from <code>bind</code>
+     *
+     * @param unsubscriber removes one subscription
+     */
+    protected void addSubscription(Runnable unsubscriber)
+    {
+        subscriptions.add(unsubscriber);
+    }
+
+
+    /**
+     * Removes every event subscription of this model. The event bus is shared by the whole application, so
+     * without this a closed window would keep reading and publishing changes. Call when the window closes
+     */
+    public void dispose()
+    {
+        subscriptions.forEach(Runnable::run);
+        logger.debug("Disposed {} with {} subscription(s)", getClass().getSimpleName(), subscriptions.size());
+        subscriptions.clear();
+    }
+
+
+    /**
+     * Runs a load on the executor, replacing any unfinished load with the same key. Use for reads whose
+     * result supersedes earlier ones, so only the latest state is fetched and published
+     *
+     * @param key  identifies the load, such as <code>"loadProducts"</code>
+     * @param task the load. Check the <code>BooleanSupplier</code> before publishing with <code>Platform.runLater</code>,
+     *             it returns true once a newer load has been submitted
+     */
+    protected void submitLatest(String key, Consumer<BooleanSupplier> task)
+    {
+        taskScheduler.submit(key, task);
+    }
+
+
+    /**
+     * Starts one phase of a screen's initial load on the executor, so phases run concurrently.
+     * Logs how long the phase waited for the executor and how long it ran
+     *
+     * @param phase  a name for the phase, used in the log
+     * @param loader reads the data for the phase
+     * @return a <code>CompletableFuture</code> completed with the data
+     */
+    protected <T> CompletableFuture<T> loadPhase(String phase, Supplier<T> loader)
+    {
+        long submittedAt = System.nanoTime();
+        return CompletableFuture.supplyAsync(() ->
+        {
+            long startedAt = System.nanoTime();
+            T result = loader.get();
+            logger.info("Loaded '{}' in {} ms (waited {} ms)", phase, millisSince(startedAt),
+                    TimeUnit.NANOSECONDS.toMillis(startedAt - submittedAt));
+            return result;
+        }, executorService);
+    }
+
+
+    /**
+     * Waits for every phase of a screen's initial load, then publishes all of their data in one
+     * <code>Platform.runLater</code>, so the view never shows a mix of old and new state. If a phase fails the
+     * fallback runs instead
+     *
+     * @param startedAt the <code>System.nanoTime()</code> when the load began
+     * @param publish   updates the observable lists from the completed phases, run on the JavaFX thread
+     * @param fallback  run if any phase failed
+     * @param phases    the phases to wait for
+     */
+    protected void publishWhenLoaded(long startedAt, Runnable publish, Runnable fallback, CompletableFuture<?>... phases)
+    {
+        CompletableFuture.allOf(phases).whenComplete((ignored, error) ->
+        {
+            if (error != null)
+            {
+                logger.error("Initial load failed after {} ms, falling back to separate loads", millisSince(startedAt), error);
+                fallback.run();
+                return;
+            }
+
+            Platform.runLater(() ->
+            {
+                publish.run();
+                logger.info("Published initial snapshot {} ms after starting", millisSince(startedAt));
+            });
+        });
+    }
+
+
+    /**
+     * Helper method to convert a <code>System.nanoTime()</code> reading to elapsed milliseconds
+     */
+    private static long millisSince(long startNanos)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+
+    /**
+     * Gets the number of loads that were skipped or abandoned because a newer one replaced them
+     *
+     * @return the coalesced task count
+     */
+    public long getCoalescedTaskCount()
+    {
+        return taskScheduler.getCoalescedCount();
+    }
+
+
+    /**
+     * Replaces the entry with the same id in a list sorted by id, or inserts it in id order if it is missing.
+     * Observable lists fire a single change, so views only update that entry. Call on the JavaFX thread
+     *
+     * @param list the list, sorted by id
+     * @param item the new entry
+     * @param idOf gets the id of an entry
+     */
+    protected static <T> void upsertById(List<T> list, T item, ToLongFunction<T> idOf)
+    {
+        int index = indexOfId(list, idOf.applyAsLong(item), idOf);
+        if (index >= 0)
+        {
+            list.set(index, item);
+        } else
+        {
+            list.add(-index - 1, item);
+        }
+    }
+
+
+    /**
+     * Removes the entry with the given id from a list sorted by id, if it is present. Call on the JavaFX thread
+     *
+     * @param list the list, sorted by id
+     * @param id   the id of the entry to remove
+     * @param idOf gets the id of an entry
+     */
+    protected static <T> void removeById(List<T> list, long id, ToLongFunction<T> idOf)
+    {
+        int index = indexOfId(list, id, idOf);
+        if (index >= 0)
+        {
+            list.remove(index);
+        }
+    }
+
+
+    /**
+     * Binary searches a list sorted by id
+     *
+     * @param list the list, sorted by id
+     * @param id   the id to find
+     * @param idOf gets the id of an entry
+     * @return the index of the entry, or <code>-(insertion point) - 1</code> if it is missing
+     */
+    protected static <T> int indexOfId(List<T> list, long id, ToLongFunction<T> idOf)
+    {
+        int low = 0;
+        int high = list.size() - 1;
+
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            long midId = idOf.applyAsLong(list.get(mid));
+
+            if (midId < id)
+            {
+                low = mid + 1;
+            } else if (midId > id)
+            {
+                high = mid - 1;
+            } else
+            {
+                return mid;
+            }
+        }
+        return -(low + 1);
     }
 }
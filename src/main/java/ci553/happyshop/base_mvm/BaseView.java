@@ -5,6 +5,7 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -56,6 +57,10 @@ public class BaseView<C extends BaseController<? extends BaseModel>, P extends P
             loadCSS(scene);
             window.setScene(scene);
             window.setTitle(title);
+
+            // Closing the window with its title bar button ends the screen. Controllers that close the window
+            // themselves dispose first, since a window that is only hidden may be shown again
+            window.addEventHandler(WindowEvent.WINDOW_CLOSE_REQUEST, event -> controller.dispose());
             window.show();        // Start the window
         } catch (Exception e)
         {
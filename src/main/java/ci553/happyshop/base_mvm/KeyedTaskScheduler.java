@@ -0,0 +1,112 @@
+package ci553.happyshop.base_mvm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Runs background tasks on an executor so that only the latest task for each key does its work. Submitting
+ * a task under a key that already has a pending task makes the older one stale: if it has not started it is
+ * cancelled, and if it is already running it can check the <code>BooleanSupplier</code> it is given and stop
+ * publishing results. Tasks are not interrupted, because interrupting a thread during a JDBC call can close
+ * the Derby connection
+ */
+public class KeyedTaskScheduler
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    private final ExecutorService executorService;
+    private final Map<String, Submission> latest = new ConcurrentHashMap<>();     // Newest unfinished task per key
+    private final AtomicLong coalescedCount = new AtomicLong(0);
+
+
+    /**
+     * A submitted task. Reports true once a newer task has been submitted under the same key
+     */
+    private static final class Submission implements BooleanSupplier
+    {
+        private volatile boolean stale = false;
+        private volatile boolean started = false;
+        private volatile Future<?> future;
+
+        @Override
+        public boolean getAsBoolean()
+        {
+            return stale;
+        }
+    }
+
+
+    /**
+     * Constructs a KeyedTaskScheduler that runs tasks on the specified executor
+     *
+     * @param executorService the executor to run tasks on
+     */
+    public KeyedTaskScheduler(@NotNull ExecutorService executorService)
+    {
+        this.executorService = executorService;
+    }
+
+
+    /**
+     * Submits a task, replacing any unfinished task with the same key
+     *
+     * @param key  identifies tasks that produce the same result, such as <code>"loadProducts"</code>
+     * @param task the work to run. It is given a <code>BooleanSupplier</code> that returns true once the task is
+     *             stale, which should be checked before publishing results
+     */
+    public void submit(@NotNull String key, @NotNull Consumer<BooleanSupplier> task)
+    {
+        Submission submission = new Submission();
+        Submission previous = latest.put(key, submission);
+
+        if (previous != null)
+        {
+            // Unfinished tasks are still in the map, so the older one is either queued or running
+            previous.stale = true;
+            boolean running = previous.started;
+            Future<?> future = previous.future;
+            if (!running && future != null)
+            {
+                future.cancel(false);       // Never interrupts, a queued task is simply dropped
+            }
+
+            long count = coalescedCount.incrementAndGet();
+            logger.debug("Coalesced '{}' task ({}), {} coalesced so far", key, running ? "running" : "queued", count);
+        }
+
+        submission.future = executorService.submit(() ->
+        {
+            submission.started = true;
+            try
+            {
+                if (!submission.stale)
+                {
+                    task.accept(submission);
+                }
+            } finally
+            {
+                latest.remove(key, submission);
+            }
+        });
+    }
+
+
+    /**
+     * Gets the number of tasks that were replaced by a newer task with the same key
+     *
+     * @return the coalesced task count
+     */
+    public long getCoalescedCount()
+    {
+        return coalescedCount.get();
+    }
+}
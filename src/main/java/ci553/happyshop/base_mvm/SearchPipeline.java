@@ -0,0 +1,252 @@
+package ci553.happyshop.base_mvm;
+
+import ci553.happyshop.utility.handlers.ExecutorHandler;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Debounced search for the search bars. Each keystroke submits the whole query; the query is only evaluated
+ * once typing has paused for the debounce window, which can be set in milliseconds with the
+ * <code>happyshop.searchDebounceMillis</code> system property. Evaluation runs on a background executor and the
+ * result is applied on the JavaFX thread, so the view is filtered and rebuilt once per pause instead of once
+ * per keystroke.
+ * <p>
+ * Every submission supersedes the ones before it. A superseded query is dropped at whichever stage it has
+ * reached, so only the final query is ever applied. The time from the last keystroke to the pulse that paints
+ * the result is recorded
+ *
+ * @param <R> the type of the evaluated result
+ */
+public class SearchPipeline<R>
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final String DEBOUNCE_PROPERTY = "happyshop.searchDebounceMillis";
+    private static final long DEFAULT_DEBOUNCE_MILLIS = 150;
+
+    // Shared by every pipeline, it only hands queries on to their executors
+    private static final ScheduledExecutorService debounceTimer = ExecutorHandler.getScheduledExecutorService("search-debounce");
+
+    private final String name;
+    private final ExecutorService executorService;
+    private final long debounceMillis;
+    private final Function<String, R> evaluator;
+    private final Consumer<R> applier;
+    private final Executor fxThread;
+    private final Consumer<Runnable> nextPulse;
+
+    private final AtomicLong generation = new AtomicLong(0);      // Incremented by every submission
+    private ScheduledFuture<?> pending;                            // Guarded by this
+
+    private final AtomicLong appliedCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private final AtomicLong totalLatencyNanos = new AtomicLong(0);
+    private final AtomicLong maxLatencyNanos = new AtomicLong(0);
+
+
+    /**
+     * Constructs a SearchPipeline that applies results on the JavaFX thread
+     *
+     * @param name            a name for the pipeline, used in the log
+     * @param executorService the executor that evaluates queries, such as a model's task group
+     * @param evaluator       evaluates a query off the JavaFX thread
+     * @param applier         applies a result, run on the JavaFX thread
+     */
+    public SearchPipeline(@NotNull String name, @NotNull ExecutorService executorService,
+            @NotNull Function<String, R> evaluator, @NotNull Consumer<R> applier)
+    {
+        this(name, executorService, Long.getLong(DEBOUNCE_PROPERTY, DEFAULT_DEBOUNCE_MILLIS), evaluator, applier,
+                Platform::runLater, SearchPipeline::runOnNextPulse);
+    }
+
+
+    /**
+     * Constructs a SearchPipeline with a specific debounce window and UI thread, e.g. for tests without JavaFX
+     *
+     * @param name            a name for the pipeline, used in the log
+     * @param executorService the executor that evaluates queries
+     * @param debounceMillis  how long typing must pause before a query is evaluated
+     * @param evaluator       evaluates a query off the UI thread
+     * @param applier         applies a result on the UI thread
+     * @param fxThread        runs tasks on the UI thread
+     * @param nextPulse       runs a task once the applied result has been painted
+     */
+    SearchPipeline(@NotNull String name, @NotNull ExecutorService executorService, long debounceMillis,
+            @NotNull Function<String, R> evaluator, @NotNull Consumer<R> applier, @NotNull Executor fxThread,
+            @NotNull Consumer<Runnable> nextPulse)
+    {
+        this.name = name;
+        this.executorService = executorService;
+        this.debounceMillis = debounceMillis;
+        this.evaluator = evaluator;
+        this.applier = applier;
+        this.fxThread = fxThread;
+        this.nextPulse = nextPulse;
+    }
+
+
+    /**
+     * Submits the current query, superseding every earlier one. Call on each keystroke
+     *
+     * @param query the full text of the search bar
+     */
+    public void submit(String query)
+    {
+        long keyedAt = System.nanoTime();
+        long submission = generation.incrementAndGet();
+
+        synchronized (this)
+        {
+            // Restart the window, an evaluation that has not started yet is never needed
+            if (pending != null)
+            {
+                pending.cancel(false);
+            }
+            pending = debounceTimer.schedule(() -> evaluate(submission, query, keyedAt), debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * Evaluates a query on the executor and hands the result to the UI thread, dropping it at any stage
+     * if a newer query has been submitted
+     */
+    private void evaluate(long submission, String query, long keyedAt)
+    {
+        if (isSuperseded(submission))
+        {
+            return;
+        }
+
+        try
+        {
+            executorService.execute(() ->
+            {
+                if (isSuperseded(submission))
+                {
+                    return;
+                }
+
+                R result = evaluator.apply(query);
+                fxThread.execute(() ->
+                {
+                    if (isSuperseded(submission))
+                    {
+                        return;
+                    }
+
+                    applier.accept(result);
+                    nextPulse.accept(() -> recordLatency(query, keyedAt));
+                });
+            });
+        } catch (RejectedExecutionException e)
+        {
+            logger.debug("Search '{}' not evaluated, {} has shut down", query, name);
+        }
+    }
+
+
+    /**
+     * Helper method to check whether a newer query has been submitted, counting the older one as dropped
+     */
+    private boolean isSuperseded(long submission)
+    {
+        if (submission != generation.get())
+        {
+            droppedCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Helper method to record the time from the last keystroke to the paint of its result
+     */
+    private void recordLatency(String query, long keyedAt)
+    {
+        long latency = System.nanoTime() - keyedAt;
+        appliedCount.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        logger.debug("{} painted '{}' {} ms after the last keystroke", name, query, TimeUnit.NANOSECONDS.toMillis(latency));
+    }
+
+
+    /**
+     * Helper method to run a task on the next JavaFX pulse, which lays out and paints the applied result
+     */
+    private static void runOnNextPulse(@NotNull Runnable task)
+    {
+        new AnimationTimer()
+        {
+            @Override
+            public void handle(long now)
+            {
+                stop();
+                task.run();
+            }
+        }.start();
+    }
+
+
+    /**
+     * Gets the number of queries whose results were applied and painted
+     *
+     * @return the applied count
+     */
+    public long getAppliedCount()
+    {
+        return appliedCount.get();
+    }
+
+
+    /**
+     * Gets the number of queries dropped after a newer one was submitted, once debouncing had started them
+     *
+     * @return the dropped count
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+
+    /**
+     * Gets the average time from the last keystroke to the paint of its result
+     *
+     * @return the average latency in milliseconds, or 0 if nothing has been applied
+     */
+    public double getAverageLatencyMillis()
+    {
+        long count = appliedCount.get();
+        return count == 0 ? 0 : totalLatencyNanos.get() / (count * 1_000_000.0);
+    }
+
+
+    /**
+     * Gets the longest time from a last keystroke to the paint of its result
+     *
+     * @return the maximum latency in milliseconds
+     */
+    public double getMaxLatencyMillis()
+    {
+        return maxLatencyNanos.get() / 1_000_000.0;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return String.format("SearchPipeline[%s applied=%d dropped=%d avgLatency=%.1fms maxLatency=%.1fms]",
+                name, getAppliedCount(), getDroppedCount(), getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+}
@@ -0,0 +1,22 @@
+package ci553.happyshop.catalogue.DTO;
+
+/**
+ * Data Transfer Object describing the outcome of checking out one basket line
+ *
+ * @param productID the primary key of the purchased <code>Product</code>
+ * @param quantity  the number of items requested
+ * @param purchased true if the stock for this line was reduced and the line removed from the basket
+ * @param shortfall the number of items that could not be supplied, 0 if the line was purchased and at least 1 if not
+ */
+public record CheckoutLine(long productID, int quantity, boolean purchased, int shortfall)
+{
+    /**
+     * Checks whether the stock for this line was reduced and the line removed from the basket
+     *
+     * @return true if the line was purchased
+     */
+    public boolean fulfilled()
+    {
+        return purchased;
+    }
+}
@@ -0,0 +1,35 @@
+package ci553.happyshop.catalogue.DTO;
+
+import java.util.List;
+
+/**
+ * Data Transfer Object containing the outcome of every line of a checkout.
+ * Lines with a shortfall were not purchased and stay in the basket
+ *
+ * @param lines a list of <code>CheckoutLine</code> objects, one per basket line
+ */
+public record CheckoutResult(List<CheckoutLine> lines)
+{
+    /**
+     * Gets the lines that could not be purchased because there was not enough stock
+     *
+     * @return a list of <code>CheckoutLine</code> objects with a shortfall
+     */
+    public List<CheckoutLine> shortfalls()
+    {
+        return lines.stream()
+                .filter(line -> !line.fulfilled())
+                .toList();
+    }
+
+
+    /**
+     * Checks whether every line in the basket was purchased
+     *
+     * @return true if there were no shortfalls
+     */
+    public boolean isComplete()
+    {
+        return lines.stream().allMatch(CheckoutLine::fulfilled);
+    }
+}
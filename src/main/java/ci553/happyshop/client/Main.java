@@ -2,6 +2,10 @@ package ci553.happyshop.client;
 
 
 import ci553.happyshop.client.login.LoginClient;
+import ci553.happyshop.data.repository.RepositoryFactory;
+import ci553.happyshop.service.ServiceFactory;
+import ci553.happyshop.systemSetup.MigrationRunner;
+import ci553.happyshop.utility.handlers.ExecutorHandler;
 import javafx.application.Application;
 import javafx.stage.Stage;
 
@@ -12,6 +16,20 @@ import java.io.IOException;
  */
 public class Main extends Application
 {
+    /**
+     * Called before <code>start</code> on the launcher thread. Applies any pending schema migrations,
+     * so an existing database picks up new tables and indexes without being reset, then starts the
+     * repositories and services so the category registry and catalogue are loaded before any screen needs them
+     */
+    @Override
+    public void init()
+    {
+        new MigrationRunner().migrate(false);
+        RepositoryFactory.startup();
+        ServiceFactory.startup();
+    }
+
+
     /**
      * The main entry point for all JavaFX applications.
      * The start method is called after the init method has returned,
@@ -32,4 +50,17 @@ public class Main extends Application
     {
         LoginClient.startLoginClient(new Stage());
     }
+
+
+    /**
+     * Called when the application exits. Waits for background tasks, flushes buffered basket changes,
+     * then releases the pooled database connections
+     */
+    @Override
+    public void stop()
+    {
+        ExecutorHandler.shutdown();
+        ServiceFactory.shutdown();
+        RepositoryFactory.shutdown();
+    }
 }
\ No newline at end of file
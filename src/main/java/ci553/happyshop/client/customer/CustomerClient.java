@@ -54,6 +54,8 @@ public class CustomerClient extends Application
         CategoryService categoryService = ServiceFactory.getCategoryService();
 
         CustomerModel cusModel = new CustomerModel(user, basketService, productService, categoryService);
+        cusModel.bind();            // Subscribe to changes before loading, so none are missed
+        cusModel.bootstrap();       // Start loading data while the view is built
         CustomerController cusController = new CustomerController(cusModel);
         BaseView<CustomerController, GridPane> cusView = new BaseView<>(cusController, customerFXML, customerCSS, "Customer Client");
         cusView.start(window);
@@ -2,7 +2,6 @@ package ci553.happyshop.client.customer;
 
 import ci553.happyshop.base_mvm.BaseController;
 import ci553.happyshop.catalogue.Category;
-import ci553.happyshop.catalogue.Product;
 import ci553.happyshop.catalogue.DTO.ProductWithCategory;
 import ci553.happyshop.client.customer.basket.BasketClient;
 import ci553.happyshop.client.login.LoginClient;
@@ -10,17 +9,16 @@ import ci553.happyshop.utility.handlers.ImageHandler;
 import ci553.happyshop.utility.handlers.StockDisplayHandler;
 import ci553.happyshop.utility.listCell.ProductCardCallback;
 import ci553.happyshop.utility.listCell.ProductCardPane;
+import ci553.happyshop.utility.listCell.VirtualizedCardGrid;
 import javafx.collections.ListChangeListener;
+import javafx.collections.MapChangeListener;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.image.ImageView;
-import javafx.scene.layout.TilePane;
-import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
-import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -45,7 +43,7 @@ public class CustomerController extends BaseController<CustomerModel>
     private Button btnBasket, btnBack;
 
     @FXML
-    private TilePane tpProducts;
+    private VirtualizedCardGrid<ProductWithCategory, ProductCardPane> productGrid;
 
 
     public CustomerController(CustomerModel model)
@@ -65,15 +63,14 @@ public class CustomerController extends BaseController<CustomerModel>
     @FXML
     public void initialize()
     {
-        ivSearchIcon.setImage(ImageHandler.loadFromString("/images/search_icon.png"));
+        ivSearchIcon.setImage(ImageHandler.loadFromString("/images/search_icon.png", true));
 
         // Set up category combobox
         refreshComboBox();
         cbCategories.getSelectionModel().selectFirst();
 
-        model.loadProducts();            // Load product list
-        model.loadCategories();          // Load category list
-        bindProductList();               // Bind the product list to the view
+        // Products and categories are loaded by model.bootstrap(), started before the FXML was parsed
+        bindProductGrid();               // Bind the product list to the view
 
         // Update ComboBox when the categoryList changes
         model.getCategories().addListener((ListChangeListener<Category>) change ->
@@ -91,9 +88,6 @@ public class CustomerController extends BaseController<CustomerModel>
         tfSearchBar.textProperty().addListener((observable, oldValue, newValue) ->
                 model.setSearchFilter(newValue));
 
-        // Automatically refresh when the filteredList changes
-        model.getSearchFilteredList().addListener((ListChangeListener<ProductWithCategory>) change -> bindProductList());
-
 
         logger.info("Finished initializing controller");
     }
@@ -119,12 +113,11 @@ public class CustomerController extends BaseController<CustomerModel>
 
 
     /**
-     * Refreshes the tilePane with the filtered product list. Defines the ProductCardCallback
+     * Binds the product grid to the filtered product list. Defines the ProductCardCallback.
+     * The grid follows the list itself, creating cards only for the visible rows
      */
-    private void bindProductList()
+    private void bindProductGrid()
     {
-        tpProducts.getChildren().clear();            // Load products from the database
-
         // Provide the methods to the callback
         ProductCardCallback callback = new ProductCardCallback(
                 model::addToBasket,                     // add product to the basket
@@ -133,27 +126,23 @@ public class CustomerController extends BaseController<CustomerModel>
                 model::getStockQuantity                 // Get quantity in stock
         );
 
-        // Add each of the products as a card
-        for (ProductWithCategory productWithCategory : model.getSearchFilteredList())
-        {
-            VBox productCard = createProductCard(productWithCategory.product(), callback);
-
-            // Add the click listener to select a product
-            productCard.setOnMouseClicked(x ->
-            {
-                logger.info("Product selected, id: {}", productWithCategory.product().getId());
+        productGrid.setCardFactory(ProductCardPane::new);
+        productGrid.setCardUpdater((card, productWithCategory) ->
+                card.updateProduct(productWithCategory.product(), callback));
+        productGrid.setKeyOf(productWithCategory -> productWithCategory.product().getId());
 
-                // Reset style to remove border on unselected cards
-                tpProducts.getChildren().forEach(node ->
-                        node.setStyle("-fx-cursor: hand"));
+        // Select a product when its card is clicked
+        productGrid.setOnCardClicked(productWithCategory ->
+        {
+            logger.info("Product selected, id: {}", productWithCategory.product().getId());
+            updateDetailPane(productWithCategory);
+        });
 
-                // Draw a border around the selected item
-                productCard.setStyle("-fx-border-color: lightgray; -fx-border-width: 1; -fx-cursor: hand");
-                updateDetailPane(productWithCategory);
-            });
+        productGrid.setSource(model.getSearchFilteredList());
 
-            tpProducts.getChildren().add(productCard);
-        }
+        // Redraw only the card whose basket quantity changed
+        model.getBasketQuantities().addListener((MapChangeListener<Long, Integer>) change ->
+                productGrid.refreshCard(change.getKey()));
     }
 
 
@@ -177,20 +166,6 @@ public class CustomerController extends BaseController<CustomerModel>
     }
 
 
-    /**
-     * Create a new <code>ProductCardPane</code> from a <code>Product object</code>
-     *
-     * @param product  the <code>Product</code> object
-     * @param callback a <code>ProductCardCallback</code>
-     * @return a <code>VBox</code> containing the card layout
-     */
-    @Contract("_, _ -> new")
-    private @NotNull VBox createProductCard(Product product, ProductCardCallback callback)
-    {
-        return new ProductCardPane(product, callback);
-    }
-
-
     /**
      * Runs the <code>start</code> method in <code>BasketClient</code>, hides this view
      */
@@ -207,16 +182,9 @@ public class CustomerController extends BaseController<CustomerModel>
 
             // Create a new stage for the basket client
             Stage basket = new Stage();
-            basket.setOnHidden(event ->
-            {
-                stage.show();
-                model.loadProducts(); // Load the product list if the basket changed anything
-            }); // Re-open the customer view when the basket close
-            basket.setOnCloseRequest(event ->
-            {
-                stage.show();
-                model.loadProducts();
-            });
+            // Re-open the customer view when the basket closes. Basket and stock changes already reached the
+            // product rows through the change events, so nothing is reloaded
+            basket.setOnHidden(event -> stage.show());
 
             // Start the basket
             basketClient.start(basket);
@@ -234,6 +202,7 @@ public class CustomerController extends BaseController<CustomerModel>
     public void goBack()
     {
         Stage stage = (Stage) btnBack.getScene().getWindow();
+        dispose();      // The window is not shown again
         stage.close();
 
         LoginClient.startLoginClient(new Stage());
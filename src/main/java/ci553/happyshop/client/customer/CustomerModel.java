@@ -1,23 +1,37 @@
 package ci553.happyshop.client.customer;
 
 import ci553.happyshop.base_mvm.BaseModel;
+import ci553.happyshop.base_mvm.SearchPipeline;
 import ci553.happyshop.catalogue.*;
 import ci553.happyshop.catalogue.DTO.ProductWithCategory;
 import ci553.happyshop.service.BasketService;
+import ci553.happyshop.service.CategoryBitmapIndex;
 import ci553.happyshop.service.CategoryService;
+import ci553.happyshop.service.ProductSearchIndex;
 import ci553.happyshop.service.ProductService;
+import ci553.happyshop.service.event.ChangeEvent.BasketLineChanged;
+import ci553.happyshop.service.event.ChangeEvent.ProductDeleted;
+import ci553.happyshop.service.event.ChangeEvent.ProductUpdated;
+import ci553.happyshop.service.event.ChangeEvent.StockChanged;
+import ci553.happyshop.service.event.ChangeEventBus;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.ObservableMap;
 import javafx.collections.transformation.FilteredList;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
  * The CustomerModel is responsible for exposing an Observable productList that is bound to the View by the CustomerController.
- * User search is facilitated by a double-filtered list (Search list -> Category list -> underlying product list).
+ * User search is facilitated by a single filtered list over the product list, whose predicate checks each product
+ * against a <code>BitSet</code> of the products matching both the search and the selected category.
  * Interfaces with DB with repositories.
  */
 public class CustomerModel extends BaseModel
@@ -29,8 +43,13 @@ public class CustomerModel extends BaseModel
 
     private final ObservableList<ProductWithCategory> productWithCategoryList = FXCollections.observableArrayList();
     private final ObservableList<Category> categoryList = FXCollections.observableArrayList();
+    private final ObservableMap<Long, Integer> basketQuantities = FXCollections.observableHashMap();  // Product id -> quantity
     private FilteredList<ProductWithCategory> searchFilteredList;
-    private FilteredList<ProductWithCategory> categoryFilteredList;
+    private String categoryFilter;      // The selected category name, or null for every category
+    private BitSet categoryMatches;     // Products in the selected category, or null for every product
+    private BitSet searchMatches;       // Products matching the search, or null for every product
+    private String searchFilter;        // The last search submitted, rerun when a product changes
+    private SearchPipeline<ProductSearchIndex.Result> searchPipeline;          // Debounces the search bar, set by bind
 
 
 
@@ -49,9 +68,135 @@ public class CustomerModel extends BaseModel
         this.basketService = basketService;
         this.productService = productService;
         this.categoryService = categoryService;
+    }
+
+
+    /**
+     * Creates the search pipeline and subscribes to product and basket changes. The subscriptions are removed
+     * by <code>dispose</code>
+     */
+    @Override
+    public void bind()
+    {
+        searchPipeline = new SearchPipeline<>(getClass().getSimpleName() + "-search", executorService,
+                this::searchProducts, this::applySearch);
+
+        // Patch the single affected product when the services publish a change, rather than reloading the list.
+        // Basket changes carry the new quantity, so basketQuantities is updated without reading the database
+        ChangeEventBus events = productService.changeEvents();
+        addSubscription(events.subscribe(ProductUpdated.class, event ->
+        {
+            refreshProduct(event.productID());
+            Platform.runLater(() ->
+            {
+                // The product may have moved into or out of the selected category
+                if (categoryMatches != null)
+                {
+                    refreshCategoryMatches();
+                }
+
+                // A renamed product may now match the search or no longer match it
+                if (searchFilter != null && !searchFilter.isBlank())
+                {
+                    searchPipeline.submit(searchFilter);
+                }
+            });
+        }));
+        addSubscription(events.subscribe(StockChanged.class, event -> refreshProduct(event.productID())));
+        addSubscription(events.subscribe(ProductDeleted.class, event -> Platform.runLater(() ->
+                removeById(productWithCategoryList, event.productID(), row -> row.product().getId()))));
+        addSubscription(events.subscribe(BasketLineChanged.class, event ->
+        {
+            if (event.customerID() == currentUser.id())
+            {
+                // The controller redraws the product's card from basketQuantities
+                Platform.runLater(() -> updateBasketQuantity(event.productID(), event.quantity()));
+            }
+        }));
+    }
+
+
+    /**
+     * Loads the products, categories and the user's basket quantities concurrently, then publishes them together
+     * on the JavaFX thread. Call before the view is loaded so the queries overlap FXML parsing
+     */
+    public void bootstrap()
+    {
+        long startedAt = System.nanoTime();
+
+        CompletableFuture<List<ProductWithCategory>> products = loadPhase("products", productService::getAllWithCategories);
+        CompletableFuture<List<Category>> categories = loadPhase("categories", categoryService::getAll);
+        CompletableFuture<Map<Long, Integer>> quantities = loadPhase("basket quantities",
+                () -> basketService.getQuantities(currentUser.id()));
+
+        publishWhenLoaded(startedAt, () ->
+        {
+            categoryList.setAll(categories.join());
+            basketQuantities.clear();
+            basketQuantities.putAll(quantities.join());
+            productWithCategoryList.setAll(products.join());
+        }, () ->
+        {
+            loadCategories();
+            loadProducts();
+        }, products, categories, quantities);
+    }
+
+
+    /**
+     * Exposes the quantity of each product in the user's basket, keyed by product id
+     *
+     * @return an unmodifiable <code>ObservableMap</code> of quantities
+     */
+    public ObservableMap<Long, Integer> getBasketQuantities()
+    {
+        return FXCollections.unmodifiableObservableMap(basketQuantities);
+    }
+
+
+    /**
+     * Helper method to apply a new basket quantity to <code>basketQuantities</code>, on the JavaFX thread
+     */
+    private void updateBasketQuantity(long productID, int quantity)
+    {
+        if (quantity > 0)
+        {
+            basketQuantities.put(productID, quantity);
+        } else
+        {
+            basketQuantities.remove(productID);
+        }
+    }
+
 
-        // Observe the changeCounter in BasketService and automatically reload the product list
-        basketService.basketChanged().addListener((observable, oldValue, newValue) -> loadProducts());
+    /**
+     * Asynchronously re-reads a single product and replaces its entry in the <code>productWithCategoryList</code>
+     *
+     * @param productID the primary key of the changed <code>Product</code>
+     */
+    private void refreshProduct(long productID)
+    {
+        // Keyed per product, so a burst of changes to one product is read once
+        submitLatest("refreshProduct-" + productID, isStale ->
+        {
+            ProductWithCategory row = productService.getWithCategory(productID);
+
+            Platform.runLater(() ->
+            {
+                if (isStale.getAsBoolean())
+                {
+                    return;
+                }
+
+                if (row == null)
+                {
+                    removeById(productWithCategoryList, productID, entry -> entry.product().getId());
+                } else
+                {
+                    upsertById(productWithCategoryList, row, entry -> entry.product().getId());
+                }
+            });
+        });
     }
 
 
@@ -78,129 +223,184 @@ public class CustomerModel extends BaseModel
 
 
     /**
-     * Asynchronously updates the <code>productWithCategoryList</code> from the <code>productRepository</code>
+     * Asynchronously updates the <code>productWithCategoryList</code> from the cached catalogue.
+     * Products are published one page at a time, so the first cards appear before the whole catalogue is loaded
      */
     public void loadProducts()
     {
-        // Execute service in a background Thread
-        executorService.submit(() ->
+        // Execute service in a background Thread. A newer load replaces this one if it has not finished
+        submitLatest("loadProducts", isStale ->
         {
-            // Retrieve the ProductWithCategory list OFF the main thread
-            List<ProductWithCategory> list = productService.getAllWithCategories();
-
-            logger.debug("Retrieved {} products with categories from ProductTable", list.size());
+            AtomicBoolean firstPage = new AtomicBoolean(true);
 
-            Platform.runLater(() ->
+            // Retrieve the ProductWithCategory pages OFF the main thread
+            productService.forEachPageWithCategories(null, PRODUCT_PAGE_SIZE, page ->
             {
-                // Update the observable list on the JavaFX thread
-                productWithCategoryList.setAll(list);
+                if (isStale.getAsBoolean())
+                {
+                    return;     // Superseded, the newer load publishes its own pages
+                }
+
+                boolean replace = firstPage.getAndSet(false);
+                logger.debug("Retrieved page of {} products with categories", page.size());
+
+                Platform.runLater(() ->
+                {
+                    if (isStale.getAsBoolean())
+                    {
+                        return;
+                    }
+
+                    // Update the observable list on the JavaFX thread, the first page replaces the old list
+                    if (replace)
+                    {
+                        productWithCategoryList.setAll(page);
+                    } else
+                    {
+                        productWithCategoryList.addAll(page);
+                    }
+                });
             });
         });
     }
 
 
     /**
-     * Asynchronously updates the <code>categoryList</code> from the <code>productRepository</code>
+     * Asynchronously updates the <code>categoryList</code> from the category registry
      */
     public void loadCategories()
     {
         // Background thread
-        executorService.submit(() ->
+        submitLatest("loadCategories", isStale ->
         {
             List<Category> list = categoryService.getAll();
-            logger.debug("Retrieved {} categories from CategoryTable", list.size());
+            logger.debug("Retrieved {} categories from the category registry", list.size());
 
             // Update the observable list on the main thread
-            Platform.runLater(() -> categoryList.setAll(list));
+            Platform.runLater(() ->
+            {
+                if (!isStale.getAsBoolean())
+                {
+                    categoryList.setAll(list);
+                }
+            });
         });
     }
 
 
     /**
-     * Gets the list of products matching the specified category. Defaults to the base <code>productList</code>.
-     * Wraps around <code>productWithCategoryList</code> if <code>categoryFilteredList</code> doesn't already exist, returns the existing list
-     * otherwise.
+     * Gets the list of products matching both the category filter and the search filter.
+     * Searches in product description and ID. Wraps around <code>productWithCategoryList</code>
+     * if this list doesn't exist, otherwise returns the existing list.
      *
-     * @return the <code>FilteredList</code> of products matching the category filter
+     * @return the <code>FilteredList</code> of products matching the filters
      */
-    public FilteredList<ProductWithCategory> getCategoryFilteredList()
+    public FilteredList<ProductWithCategory> getSearchFilteredList()
     {
-        // Defaults to "no category"
-        if (categoryFilteredList == null)
+        // Creates searchFilteredList if it doesn't exist
+        if (searchFilteredList == null)
         {
-            // Gets the
-            categoryFilteredList = new FilteredList<>(productWithCategoryList, p -> true);
+            // Defaults to "no category" and no search
+            searchFilteredList = new FilteredList<>(productWithCategoryList, p -> true);
         }
-        return categoryFilteredList;
+        return searchFilteredList;
     }
 
 
     /**
-     * Gets the (already filtered by category) list of products matching the search filter.
-     * Searches in product description and ID. Gets the list of products from <code>categoryFilteredList</code>
-     * if this list doesn't exist, otherwise returns the existing list.
+     * Submits a search to the search pipeline, which updates the predicate of the searchFilteredList once typing
+     * pauses to return the products matching <code>searchFilter</code> by product ID or description. The search
+     * is kept and submitted again whenever a product is updated. Call on every keystroke
      *
-     * @return the <code>FilteredList</code> of products matching the filter
+     * @param searchFilter a <code>String</code> literal matching either the start of the product ID or the description
      */
-    public FilteredList<ProductWithCategory> getSearchFilteredList()
+    public void setSearchFilter(String searchFilter)
     {
-        // Creates searchFilteredList if it doesn't exist
-        if (searchFilteredList == null)
-        {
-            // Wrap around the categoryFilteredList if this list doesn't exist yet
-            searchFilteredList = new FilteredList<>(getCategoryFilteredList(), p -> true);
-        }
-        return searchFilteredList;
+        this.searchFilter = searchFilter;
+        searchPipeline.submit(searchFilter);
     }
 
 
     /**
-     * Updates the predicate of the searchFilteredList to search by product ID or description and
-     * return the products that match the predicate <code>searchFilter</code>.
+     * Helper method to look up a search in the product search index, run off the JavaFX thread
      *
-     * @param searchFilter a <code>String</code> literal matching either the product ID or description
+     * @param searchFilter the search text
+     * @return the matching products, or null to show every product
      */
-    public void setSearchFilter(String searchFilter)
+    private ProductSearchIndex.Result searchProducts(String searchFilter)
     {
-        // Get the list before filtering-avoids null lists
-        getSearchFilteredList().setPredicate(productWithCategory ->
-        {
-            if (searchFilter == null)
-            {
-                return true;
-            } else
-            {
-                // Return true if the ID or description match the search filter
-                return String.valueOf(productWithCategory.product().getId()).contains(searchFilter)
-                        || productWithCategory.product().getName().toLowerCase().contains(searchFilter.toLowerCase());
-            }
-        });
+        return searchFilter == null || searchFilter.isBlank() ? null : productService.search(searchFilter);
+    }
+
+
+    /**
+     * Helper method to filter the searchFilteredList to a search result, within the selected category
+     *
+     * @param matches the matching products, or null to show every product
+     */
+    private void applySearch(ProductSearchIndex.Result matches)
+    {
+        searchMatches = matches == null ? null : matches.products();
+        applyFilters();
     }
 
 
     /**
-     * Updates the predicate of the categoryFilteredList to search by categoryName and
-     * return the products that match the predicate <code>categoryFilter</code>.
+     * Filters the products to the category named <code>categoryFilter</code>. The category's products are looked up
+     * in the category bitmap index rather than comparing names for every product
      *
      * @param categoryFilter a <code>String</code> literal matching the category name
      */
     public void setCategoryFilter(String categoryFilter)
     {
-        // Get the list before filtering-avoids null lists
-        getCategoryFilteredList().setPredicate(productWithCategory ->
+        this.categoryFilter = categoryFilter;
+        refreshCategoryMatches();
+    }
+
+
+    /**
+     * Helper method to look up the products in the selected category again, e.g. after a product has been
+     * moved to another category, and re-apply the filters. Call on the JavaFX thread
+     */
+    private void refreshCategoryMatches()
+    {
+        if (categoryFilter == null
+                || categoryFilter.trim().isEmpty()
+                || categoryFilter.trim().equalsIgnoreCase("Select Category")) // ignore the "default category"
         {
-            if (categoryFilter == null
-                    || categoryFilter.trim().isEmpty()
-                    || categoryFilter.trim().equalsIgnoreCase("Select Category")) // ignore the "default category"
-            {
-                return true;
-            } else
-            {
-                // Return true if the category name matches the search filter
-                String lowercaseFilter = categoryFilter.toLowerCase().trim();
-                return productWithCategory.category().getName().toLowerCase().equals(lowercaseFilter);
-            }
-        });
+            categoryMatches = null;
+        } else
+        {
+            Category category = categoryService.getByName(categoryFilter);
+            categoryMatches = category == null ? new BitSet() : productService.getProductsInCategory(category.getId());
+        }
+        applyFilters();
+    }
+
+
+    /**
+     * Helper method to set the predicate of the searchFilteredList to the products matching both filters.
+     * Combining the filters is a single <code>BitSet.and</code>, so the predicate is only a bit check per product
+     */
+    private void applyFilters()
+    {
+        BitSet visible;
+        if (categoryMatches == null)
+        {
+            visible = searchMatches;
+        } else if (searchMatches == null)
+        {
+            visible = categoryMatches;
+        } else
+        {
+            visible = (BitSet) categoryMatches.clone();
+            visible.and(searchMatches);
+        }
+
+        // Get the list before filtering-avoids null lists
+        getSearchFilteredList().setPredicate(visible == null
+                ? productWithCategory -> true
+                : productWithCategory -> CategoryBitmapIndex.contains(visible, productWithCategory.product().getId()));
     }
 
 
@@ -211,13 +411,11 @@ public class CustomerModel extends BaseModel
      */
     public void addToBasket(@NotNull Product product)
     {
-        executorService.submit(() ->
+        writeExecutor.execute(() ->
         {
             // Update the basket on the background thread
             basketService.addOrUpdateItem(currentUser.id(), product.getId(), 1);
         });
-
-        loadProducts(); // List has changed, update card data
     }
 
 
@@ -228,26 +426,24 @@ public class CustomerModel extends BaseModel
      */
     public void removeFromBasket(@NotNull Product product)
     {
-        executorService.submit(() ->
+        writeExecutor.execute(() ->
         {
             // Update the basket on the background thread
             basketService.decreaseOrRemoveItem(currentUser.id(), product.getId());
         });
-
-        loadProducts();
     }
 
 
     /**
-     * Delegates to basketService to get the quantity of a product
+     * Gets the quantity of a product in the user's basket from <code>basketQuantities</code>, without a service call.
+     * Call on the JavaFX thread
      *
      * @param product the <code>Product</code> object from which the quantity is extracted.
      * @return an int value of the quantity
      */
     public int getBasketQuantity(@NotNull Product product)
     {
-        // Simple reads like quantity checks (unfortunately) are synchronous
-        return basketService.getQuantity(currentUser.id(), product.getId());
+        return basketQuantities.getOrDefault(product.getId(), 0);
     }
 
 
@@ -263,13 +459,14 @@ public class CustomerModel extends BaseModel
 
 
     /**
-     * Gets the stock quantity of a given product
+     * Gets the stock quantity of a given product. The products in the list are replaced whenever their stock
+     * changes, so the product's own value is current
      *
      * @param product the <code>Product</code> from which to get the quantity
      * @return the int stock quantity of the specified product
      */
     public int getStockQuantity(@NotNull Product product)
     {
-        return productService.getStockQuantity(product.getId());
+        return product.getStockQuantity();
     }
 }
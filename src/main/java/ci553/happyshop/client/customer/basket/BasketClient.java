@@ -51,6 +51,7 @@ public class BasketClient extends Application
         ProductService productService = ServiceFactory.getProductService();
 
         BasketModel model = new BasketModel(user, basketService, productService);
+        model.bind();               // Subscribe to basket changes before the view loads the basket
         BasketController controller = new BasketController(model);
         BaseView<BasketController, VBox> view = new BaseView<>(controller, basketFXML, null, "Basket Client");
         view.start(primaryStage);
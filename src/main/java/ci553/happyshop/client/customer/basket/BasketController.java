@@ -5,7 +5,7 @@ import ci553.happyshop.catalogue.DTO.BasketItemWithDetails;
 import ci553.happyshop.utility.listCell.BasketListCell;
 import ci553.happyshop.utility.listCell.ProductCardCallback;
 import ci553.happyshop.utility.alerts.AlertFactory;
-import javafx.collections.ListChangeListener;
+import javafx.beans.binding.Bindings;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
@@ -58,22 +58,8 @@ public class BasketController extends BaseController<BasketModel>
         lvBasketList.setCellFactory(param -> new BasketListCell(callback));
         lvBasketList.setItems(model.getBasketItems());        // Clear the ListView and load the list of basket items into it
 
-        // Add a listener to automatically recalculate the "grand total" when the list changes
-        model.getBasketItems().addListener((ListChangeListener<BasketItemWithDetails>) change -> updateTotal());
-
-        // Observe the changeCounter in BasketService and automatically reload the basket
-        model.basketChanged().addListener((observable, oldValue, newValue) -> model.loadBasketItems());
-
-        updateTotal();
-    }
-
-
-    /**
-     * Updates the total displayed in the basket total label
-     */
-    private void updateTotal()
-    {
-        lbBasketTotal.setText(String.format("Total: £%.00f", model.getBasketTotal()));
+        // The model recalculates the "grand total" in the background when the list changes
+        lbBasketTotal.textProperty().bind(Bindings.format("Total: £%.00f", model.basketTotalProperty()));
     }
 
 
@@ -83,6 +69,7 @@ public class BasketController extends BaseController<BasketModel>
     public void goBack()
     {
         Stage stage = (Stage) btnBack.getScene().getWindow();
+        dispose();      // The window is not shown again
         stage.close();
     }
 
@@ -2,17 +2,25 @@ package ci553.happyshop.client.customer.basket;
 
 import ci553.happyshop.base_mvm.BaseModel;
 import ci553.happyshop.catalogue.DTO.BasketItemWithDetails;
+import ci553.happyshop.catalogue.DTO.CheckoutResult;
+import ci553.happyshop.catalogue.DTO.ProductWithCategory;
 import ci553.happyshop.catalogue.Product;
 import ci553.happyshop.catalogue.User;
 import ci553.happyshop.service.BasketService;
 import ci553.happyshop.service.ProductService;
+import ci553.happyshop.service.event.ChangeEvent.BasketLineChanged;
+import ci553.happyshop.service.event.ChangeEvent.StockChanged;
+import ci553.happyshop.utility.alerts.AlertFactory;
 import javafx.application.Platform;
-import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Model for the Basket MVC. Connects to the basketService to get basket details.
@@ -23,6 +31,7 @@ public class BasketModel extends BaseModel
     private final ProductService productService;
     private final User user;        // The ID of the user accessing their basket
     private final ObservableList<BasketItemWithDetails> basketItems = FXCollections.observableArrayList();
+    private final ReadOnlyDoubleWrapper basketTotal = new ReadOnlyDoubleWrapper(0);    // Updated off the JavaFX thread
 
 
     /**
@@ -38,6 +47,82 @@ public class BasketModel extends BaseModel
     }
 
 
+    /**
+     * Subscribes to basket and stock changes, and recalculates the total whenever the lines change.
+     * The subscriptions are removed by <code>dispose</code>
+     */
+    @Override
+    public void bind()
+    {
+        // Recalculate the total in the background whenever the lines change
+        basketItems.addListener((ListChangeListener<BasketItemWithDetails>) change -> refreshBasketTotal());
+
+        // Patch the single affected line when the basket or a product's stock changes
+        addSubscription(basketService.changeEvents().subscribe(BasketLineChanged.class, event ->
+        {
+            if (event.customerID() == user.id())
+            {
+                refreshLine(event.productID());
+            }
+        }));
+        addSubscription(productService.changeEvents().subscribe(StockChanged.class,
+                event -> refreshLine(event.productID())));
+    }
+
+
+    /**
+     * Asynchronously recalculates the basket total and publishes it to <code>basketTotal</code>
+     */
+    private void refreshBasketTotal()
+    {
+        // Keyed, so a burst of line changes is totalled once
+        submitLatest("basketTotal", isStale ->
+        {
+            double total = basketService.getBasketTotalPrice(user.id());
+            Platform.runLater(() ->
+            {
+                if (!isStale.getAsBoolean())
+                {
+                    basketTotal.set(total);
+                }
+            });
+        });
+    }
+
+
+    /**
+     * Asynchronously re-reads one basket line and replaces, inserts or removes its entry in <code>basketItems</code>
+     *
+     * @param productID the primary key of the <code>Product</code> on the line
+     */
+    private void refreshLine(long productID)
+    {
+        // Keyed per product, so a burst of clicks on one line is read once
+        submitLatest("refreshLine-" + productID, isStale ->
+        {
+            int quantity = basketService.getQuantity(user.id(), productID);
+            ProductWithCategory product = quantity > 0 ? productService.getWithCategory(productID) : null;
+
+            Platform.runLater(() ->
+            {
+                if (isStale.getAsBoolean())
+                {
+                    return;
+                }
+
+                if (product == null)
+                {
+                    removeById(basketItems, productID, item -> item.productWithCategory().product().getId());
+                } else
+                {
+                    upsertById(basketItems, new BasketItemWithDetails(product, quantity),
+                            item -> item.productWithCategory().product().getId());
+                }
+            });
+        });
+    }
+
+
     /**
      * Exposes an <code>ObservableList</code> version of the basket items
      *
@@ -54,8 +139,8 @@ public class BasketModel extends BaseModel
      */
     public void loadBasketItems()
     {
-        // Async refresh
-        executorService.submit(() ->
+        // Async refresh, a newer load replaces this one if it has not finished
+        submitLatest("loadBasketItems", isStale ->
         {
             List<BasketItemWithDetails> list = basketService.getAll(user.id());
             if (list != null)
@@ -63,10 +148,13 @@ public class BasketModel extends BaseModel
                 // Execute the change to the observable list on the JavaFX thread
                 Platform.runLater(() ->
                 {
-                    basketItems.setAll(list);
+                    if (!isStale.getAsBoolean())
+                    {
+                        basketItems.setAll(list);
+                    }
                 });
                 logger.debug("Loaded {} items into basket", list.size());
-            }
+            } else
             {
                 logger.debug("Basket is empty");
             }
@@ -81,7 +169,7 @@ public class BasketModel extends BaseModel
      */
     public void addToBasket(@NotNull Product product)
     {
-        executorService.submit(() ->
+        writeExecutor.execute(() ->
         {
             // Delegate to service
             basketService.addOrUpdateItem(user.id(), product.getId(), 1);
@@ -96,7 +184,7 @@ public class BasketModel extends BaseModel
      */
     public void removeFromBasket(@NotNull Product product)
     {
-        executorService.submit(() ->
+        writeExecutor.execute(() ->
         {
             // Delegate to service
             basketService.decreaseOrRemoveItem(user.id(), product.getId());
@@ -105,24 +193,38 @@ public class BasketModel extends BaseModel
 
 
     /**
-     * Delegates to basketService to get the quantity of a product
+     * Gets the quantity of a product from the loaded basket lines, without a service call.
+     * Call on the JavaFX thread
      *
      * @param product the <code>Product</code> object from which the quantity is extracted.
-     * @return an int value of the quantity
+     * @return an int value of the quantity, or 0 if the product is not in the basket
      */
     public int getBasketQuantity(@NotNull Product product)
     {
-        return basketService.getQuantity(user.id(), product.getId());
+        int index = indexOfId(basketItems, product.getId(), item -> item.productWithCategory().product().getId());
+        return index >= 0 ? basketItems.get(index).quantity() : 0;
     }
 
+
     /**
-     * Delegates to basketService to get the quantity of the entire basket
+     * Exposes the total price of the basket, kept current in the background as the lines change
+     *
+     * @return a read-only property holding the total price
+     */
+    public ReadOnlyDoubleProperty basketTotalProperty()
+    {
+        return basketTotal.getReadOnlyProperty();
+    }
+
+
+    /**
+     * Gets the last published total price of the basket, without a service call. Call on the JavaFX thread
      *
      * @return a double of the total price
      */
     public double getBasketTotal()
     {
-        return basketService.getBasketTotalPrice(user.id());
+        return basketTotal.get();
     }
 
 
@@ -131,7 +233,7 @@ public class BasketModel extends BaseModel
      */
     public void clearBasket()
     {
-        executorService.submit(() ->
+        writeExecutor.execute(() ->
         {
             // Execute on a background thread
             basketService.clearBasket(user.id());
@@ -140,36 +242,38 @@ public class BasketModel extends BaseModel
 
 
     /**
-     * Delegates to basketService to reduce stocks of all purchased items and
+     * Delegates to basketService to reduce stocks of all purchased items and remove them from the basket.
+     * Warns the user about any items that could not be purchased
      */
     public void checkoutBasket()
     {
-        executorService.submit(() ->
+        writeExecutor.execute(() ->
         {
             // Delegate to a background thread
-            basketService.checkoutBasket(user.id());
+            CheckoutResult result = basketService.checkoutBasket(user.id());
+
+            if (!result.isComplete())
+            {
+                String content = result.shortfalls().stream()
+                        .map(line -> "Product " + line.productID() + ": " + line.shortfall() + " of " + line.quantity() + " unavailable")
+                        .collect(Collectors.joining("\n"));
+
+                // Show on the JavaFX thread, the items stay in the basket
+                Platform.runLater(() -> AlertFactory.warning("Checkout", "Some items are out of stock", content));
+            }
         });
     }
 
 
     /**
-     * Gets the stock quantity of the specified product
+     * Gets the stock quantity of the specified product. Lines are re-read whenever their stock changes,
+     * so the product's own value is current
      *
      * @param product a <code>Product</code> object
      * @return the quantity in stock, as an int.
      */
     public int getStockQuantity(@NotNull Product product)
     {
-        return productService.getStockQuantity(product.getId());
-    }
-
-
-    /**
-     * Exposes the basketChanged property from the service to the Controller
-     * @return an immutable <code>IntegerProperty</code>
-     */
-    public ReadOnlyIntegerProperty basketChanged()
-    {
-        return basketService.basketChanged();
+        return product.getStockQuantity();
     }
 }
@@ -54,6 +54,8 @@ public class WarehouseClient extends Application
 
 
         WarehouseModel model = new WarehouseModel(productService, categoryService);
+        model.bind();               // Subscribe to changes before loading, so none are missed
+        model.bootstrap();          // Start loading data while the view is built
         WarehouseController controller = new WarehouseController(model);
         BaseView<WarehouseController, GridPane> view = new BaseView<>(controller, warehouseFXML, warehouseCSS, "Warehouse");
         view.start(window);
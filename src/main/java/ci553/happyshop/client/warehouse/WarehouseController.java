@@ -8,6 +8,7 @@ import ci553.happyshop.client.login.LoginClient;
 import ci553.happyshop.utility.alerts.AlertFactory;
 import ci553.happyshop.utility.handlers.ImageHandler;
 import ci553.happyshop.utility.listCell.WarehouseCardCallback;
+import ci553.happyshop.utility.listCell.VirtualizedCardGrid;
 import ci553.happyshop.utility.listCell.WarehouseCardPane;
 import javafx.application.Platform;
 import javafx.collections.ListChangeListener;
@@ -17,10 +18,7 @@ import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.image.ImageView;
-import javafx.scene.layout.TilePane;
-import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
-import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
 public class WarehouseController extends BaseController<WarehouseModel>
@@ -28,7 +26,7 @@ public class WarehouseController extends BaseController<WarehouseModel>
     public @FXML ImageView ivSearchIcon;
     public @FXML TextField tfSearchBar, tfName, tfPrice, tfStockQty;
     public @FXML ComboBox<String> cbCategories;
-    public @FXML TilePane tpProducts;
+    public @FXML VirtualizedCardGrid<ProductWithCategory, WarehouseCardPane> productGrid;
     public @FXML ImageView ivDetailImage;
     public @FXML ComboBox<String> cbSelectMode;
     public @FXML Label lbDetailID, lbStockQty;
@@ -57,15 +55,14 @@ public class WarehouseController extends BaseController<WarehouseModel>
     @FXML
     public void initialize()
     {
-        ivSearchIcon.setImage(ImageHandler.loadFromString("/images/search_icon.png"));
+        ivSearchIcon.setImage(ImageHandler.loadFromString("/images/search_icon.png", true));
 
         // Set up category combobox
         refreshComboBox();
         cbCategories.getSelectionModel().selectFirst();
 
-        model.loadProducts();            // Load product list
-        model.loadCategories();          // Load category list
-        bindProductList();               // Bind the product list to the view
+        // Products and categories are loaded by model.bootstrap(), started before the FXML was parsed
+        bindProductGrid();               // Bind the product list to the view
 
         // Update ComboBox when the categoryList changes
         model.getCategories().addListener((ListChangeListener<Category>) change ->
@@ -95,12 +92,6 @@ public class WarehouseController extends BaseController<WarehouseModel>
         tfStockQty.textProperty().addListener(((observable, oldValue, newValue) ->
                 newStockQuantity = newValue));
 
-        // Update the model list when the product service updates
-        model.productsChangedProperty().addListener((observable, oldValue, newValue) -> model.loadProducts());
-
-        // Automatically refresh when the filteredList changes
-        model.getSearchFilteredList().addListener((ListChangeListener<ProductWithCategory>) change -> bindProductList());
-
 
         // Observe the validation error property from the model
         model.validationErrorProperty().addListener(((observable, oldValue, newValue) ->
@@ -141,28 +132,21 @@ public class WarehouseController extends BaseController<WarehouseModel>
 
 
     /**
-     * Refreshes the tilePane with the filtered product list. Defines the WarehouseCardCallback
+     * Binds the product grid to the filtered product list. Defines the WarehouseCardCallback.
+     * The grid follows the list itself, creating cards only for the visible rows
      */
-    private void bindProductList()
+    private void bindProductGrid()
     {
-        // Load products and display them in the TilePane
-        tpProducts.getChildren().clear();
-
         // Provide callback behaviour
         WarehouseCardCallback callback = new WarehouseCardCallback(
                 this::updateDetailPane,
                 this::confirmDelete
         );
 
-
-        // Add each product as a WarehouseCardPane
-        for (ProductWithCategory productWithCategory : model.getSearchFilteredList())
-        {
-            VBox productCard = createProductCard(productWithCategory, callback);
-
-            // Add to the TilePane
-            tpProducts.getChildren().add(productCard);
-        }
+        productGrid.setCardFactory(WarehouseCardPane::new);
+        productGrid.setCardUpdater((card, productWithCategory) -> card.updateProduct(productWithCategory, callback));
+        productGrid.setKeyOf(productWithCategory -> productWithCategory.product().getId());
+        productGrid.setSource(model.getSearchFilteredList());
     }
 
 
@@ -215,26 +199,13 @@ public class WarehouseController extends BaseController<WarehouseModel>
     }
 
 
-    /**
-     * Create a new <code>WarehouseCardPane</code> from a <code>Product object</code>
-     *
-     * @param productWithCategory the <code>productWithCategory</code> object
-     * @param callback            a <code>WarehouseCardCallback</code>
-     * @return a <code>VBox</code> containing the card layout
-     */
-    @Contract("_, _ -> new")
-    private @NotNull VBox createProductCard(ProductWithCategory productWithCategory, WarehouseCardCallback callback)
-    {
-        return new WarehouseCardPane(productWithCategory, callback);
-    }
-
-
     /**
      * Closes the warehouse and re-opens the Login screen
      */
     public void goBack()
     {
         Stage stage = (Stage) btnBack.getScene().getWindow();
+        dispose();      // The window is not shown again
         stage.close();
 
         LoginClient.startLoginClient(new Stage());
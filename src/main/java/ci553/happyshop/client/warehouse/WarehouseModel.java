@@ -1,26 +1,36 @@
 package ci553.happyshop.client.warehouse;
 
 import ci553.happyshop.base_mvm.BaseModel;
+import ci553.happyshop.base_mvm.SearchPipeline;
 import ci553.happyshop.catalogue.Category;
 import ci553.happyshop.catalogue.DTO.ProductWithCategory;
 import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.service.CategoryBitmapIndex;
 import ci553.happyshop.service.CategoryService;
+import ci553.happyshop.service.ProductSearchIndex;
 import ci553.happyshop.service.ProductService;
+import ci553.happyshop.service.event.ChangeEvent.ProductDeleted;
+import ci553.happyshop.service.event.ChangeEvent.ProductUpdated;
+import ci553.happyshop.service.event.ChangeEvent.StockChanged;
+import ci553.happyshop.service.event.ChangeEventBus;
 import javafx.application.Platform;
-import javafx.beans.property.ReadOnlyIntegerProperty;
 import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
  * The Warehouse model interfaces with the Services to get and set product information
- * It features the same double-filtered list present in the Customer model, albeit
- * with a different card displayed in the TilePane
+ * It features the same filtered list with a <code>BitSet</code> predicate as the Customer model, albeit
+ * with a different card displayed in the product grid
  */
 public class WarehouseModel extends BaseModel
 {
@@ -29,8 +39,13 @@ public class WarehouseModel extends BaseModel
 
     private final ObservableList<ProductWithCategory> productWithCategoryList = FXCollections.observableArrayList();
     private final ObservableList<Category> categoryList = FXCollections.observableArrayList();
+    private final ReadOnlyStringWrapper validationError = new ReadOnlyStringWrapper("");      // Set on the JavaFX thread
     private FilteredList<ProductWithCategory> searchFilteredList;
-    private FilteredList<ProductWithCategory> categoryFilteredList;
+    private String categoryFilter;      // The selected category name, or null for every category
+    private BitSet categoryMatches;     // Products in the selected category, or null for every product
+    private BitSet searchMatches;       // Products matching the search, or null for every product
+    private String searchFilter;        // The last search submitted, rerun when a product changes
+    private SearchPipeline<ProductSearchIndex.Result> searchPipeline;          // Debounces the search bar, set by bind
 
 
     /**
@@ -46,6 +61,96 @@ public class WarehouseModel extends BaseModel
     }
 
 
+    /**
+     * Creates the search pipeline and subscribes to product changes. The subscriptions are removed by
+     * <code>dispose</code>
+     */
+    @Override
+    public void bind()
+    {
+        searchPipeline = new SearchPipeline<>(getClass().getSimpleName() + "-search", executorService,
+                this::searchProducts, this::applySearch);
+
+        // Patch the single affected product when the product service publishes a change
+        ChangeEventBus events = productService.changeEvents();
+        addSubscription(events.subscribe(ProductUpdated.class, event ->
+        {
+            refreshProduct(event.productID());
+            Platform.runLater(() ->
+            {
+                // The product may have moved into or out of the selected category
+                if (categoryMatches != null)
+                {
+                    refreshCategoryMatches();
+                }
+
+                // A renamed product may now match the search or no longer match it
+                if (searchFilter != null && !searchFilter.isBlank())
+                {
+                    searchPipeline.submit(searchFilter);
+                }
+            });
+        }));
+        addSubscription(events.subscribe(StockChanged.class, event -> refreshProduct(event.productID())));
+        addSubscription(events.subscribe(ProductDeleted.class, event -> Platform.runLater(() ->
+                removeById(productWithCategoryList, event.productID(), row -> row.product().getId()))));
+    }
+
+
+    /**
+     * Loads the products and categories concurrently, then publishes them together on the JavaFX thread.
+     * Call before the view is loaded so the queries overlap FXML parsing
+     */
+    public void bootstrap()
+    {
+        long startedAt = System.nanoTime();
+
+        CompletableFuture<List<ProductWithCategory>> products = loadPhase("products", productService::getAllWithCategories);
+        CompletableFuture<List<Category>> categories = loadPhase("categories", categoryService::getAll);
+
+        publishWhenLoaded(startedAt, () ->
+        {
+            categoryList.setAll(categories.join());
+            productWithCategoryList.setAll(products.join());
+        }, () ->
+        {
+            loadCategories();
+            loadProducts();
+        }, products, categories);
+    }
+
+
+    /**
+     * Asynchronously re-reads a single product and replaces its entry in the <code>productWithCategoryList</code>
+     *
+     * @param productID the primary key of the changed <code>Product</code>
+     */
+    private void refreshProduct(long productID)
+    {
+        // Keyed per product, so a burst of changes to one product is read once
+        submitLatest("refreshProduct-" + productID, isStale ->
+        {
+            ProductWithCategory row = productService.getWithCategory(productID);
+
+            Platform.runLater(() ->
+            {
+                if (isStale.getAsBoolean())
+                {
+                    return;
+                }
+
+                if (row == null)
+                {
+                    removeById(productWithCategoryList, productID, entry -> entry.product().getId());
+                } else
+                {
+                    upsertById(productWithCategoryList, row, entry -> entry.product().getId());
+                }
+            });
+        });
+    }
+
+
     /**
      * Exposes an <code>ObservableList</code> version of the product list.
      *
@@ -69,155 +174,204 @@ public class WarehouseModel extends BaseModel
 
 
     /**
-     * Get the observable error property from the service
+     * Get the observable validation error of the last save, copied from the service on the JavaFX thread
      *
      * @return an immutable <code>StringProperty</code>
      */
     public ReadOnlyStringProperty validationErrorProperty()
     {
-        return productService.userError();
-    }
-
-
-    public ReadOnlyIntegerProperty productsChangedProperty()
-    {
-        return productService.productsChanged();
+        return validationError.getReadOnlyProperty();
     }
 
 
     /**
-     * Resets the <code>StringProperty</code> in the productService
+     * Resets the validation error back to the default. Call on the JavaFX thread
      */
     public void resetUserError()
     {
-        productService.resetUserError();
+        validationError.set("");
     }
 
 
     /**
-     * Asynchronously updates the <code>productWithCategoryList</code> from the <code>productRepository</code>
+     * Asynchronously updates the <code>productWithCategoryList</code> from the cached catalogue.
+     * Products are published one page at a time, so the first cards appear before the whole catalogue is loaded
      */
     public void loadProducts()
     {
-        // Execute service in a background Thread
-        executorService.submit(() ->
+        // Execute service in a background Thread. A newer load replaces this one if it has not finished
+        submitLatest("loadProducts", isStale ->
         {
-            // Retrieve the ProductWithCategory list OFF the main thread
-            List<ProductWithCategory> list = productService.getAllWithCategories();
-
-            logger.debug("Retrieved {} products with categories from ProductTable", list.size());
+            AtomicBoolean firstPage = new AtomicBoolean(true);
 
-            Platform.runLater(() ->
+            // Retrieve the ProductWithCategory pages OFF the main thread
+            productService.forEachPageWithCategories(null, PRODUCT_PAGE_SIZE, page ->
             {
-                // Update the observable list on the JavaFX thread
-                productWithCategoryList.setAll(list);
+                if (isStale.getAsBoolean())
+                {
+                    return;     // Superseded, the newer load publishes its own pages
+                }
+
+                boolean replace = firstPage.getAndSet(false);
+                logger.debug("Retrieved page of {} products with categories", page.size());
+
+                Platform.runLater(() ->
+                {
+                    if (isStale.getAsBoolean())
+                    {
+                        return;
+                    }
+
+                    // Update the observable list on the JavaFX thread, the first page replaces the old list
+                    if (replace)
+                    {
+                        productWithCategoryList.setAll(page);
+                    } else
+                    {
+                        productWithCategoryList.addAll(page);
+                    }
+                });
             });
         });
     }
 
 
     /**
-     * Asynchronously updates the <code>categoryList</code> from the <code>productRepository</code>
+     * Asynchronously updates the <code>categoryList</code> from the category registry
      */
     public void loadCategories()
     {
         // Background thread
-        executorService.submit(() ->
+        submitLatest("loadCategories", isStale ->
         {
             List<Category> list = categoryService.getAll();
-            logger.debug("Retrieved {} categories from CategoryTable", list.size());
+            logger.debug("Retrieved {} categories from the category registry", list.size());
 
             // Update the observable list on the main thread
-            Platform.runLater(() -> categoryList.setAll(list));
+            Platform.runLater(() ->
+            {
+                if (!isStale.getAsBoolean())
+                {
+                    categoryList.setAll(list);
+                }
+            });
         });
     }
 
 
     /**
-     * Gets the list of products matching the specified category. Defaults to the base <code>productList</code>.
-     * Wraps around <code>productWithCategoryList</code> if <code>categoryFilteredList</code> doesn't already exist, returns the existing list
-     * otherwise.
+     * Gets the list of products matching both the category filter and the search filter.
+     * Searches in product description and ID. Wraps around <code>productWithCategoryList</code>
+     * if this list doesn't exist, otherwise returns the existing list.
      *
-     * @return the <code>FilteredList</code> of products matching the category filter
+     * @return the <code>FilteredList</code> of products matching the filters
      */
-    public FilteredList<ProductWithCategory> getCategoryFilteredList()
+    public FilteredList<ProductWithCategory> getSearchFilteredList()
     {
-        // Defaults to "no category"
-        if (categoryFilteredList == null)
+        // Creates searchFilteredList if it doesn't exist
+        if (searchFilteredList == null)
         {
-            // Gets the
-            categoryFilteredList = new FilteredList<>(productWithCategoryList, p -> true);
+            // Defaults to "no category" and no search
+            searchFilteredList = new FilteredList<>(productWithCategoryList, p -> true);
         }
-        return categoryFilteredList;
+        return searchFilteredList;
     }
 
 
     /**
-     * Gets the (already filtered by category) list of products matching the search filter.
-     * Searches in product description and ID. Gets the list of products from <code>categoryFilteredList</code>
-     * if this list doesn't exist, otherwise returns the existing list.
+     * Submits a search to the search pipeline, which updates the predicate of the searchFilteredList once typing
+     * pauses to return the products matching <code>searchFilter</code> by product ID or description. The search
+     * is kept and submitted again whenever a product is updated. Call on every keystroke
      *
-     * @return the <code>FilteredList</code> of products matching the filter
+     * @param searchFilter a <code>String</code> literal matching either the start of the product ID or the description
      */
-    public FilteredList<ProductWithCategory> getSearchFilteredList()
+    public void setSearchFilter(String searchFilter)
     {
-        // Creates searchFilteredList if it doesn't exist
-        if (searchFilteredList == null)
-        {
-            // Wrap around the categoryFilteredList if this list doesn't exist yet
-            searchFilteredList = new FilteredList<>(getCategoryFilteredList(), p -> true);
-        }
-        return searchFilteredList;
+        this.searchFilter = searchFilter;
+        searchPipeline.submit(searchFilter);
     }
 
 
     /**
-     * Updates the predicate of the searchFilteredList to search by product ID or description and
-     * return the products that match the predicate <code>searchFilter</code>.
+     * Helper method to look up a search in the product search index, run off the JavaFX thread
      *
-     * @param searchFilter a <code>String</code> literal matching either the product ID or description
+     * @param searchFilter the search text
+     * @return the matching products, or null to show every product
      */
-    public void setSearchFilter(String searchFilter)
+    private ProductSearchIndex.Result searchProducts(String searchFilter)
     {
-        // Get the list before filtering-avoids null lists
-        getSearchFilteredList().setPredicate(productWithCategory ->
-        {
-            if (searchFilter == null)
-            {
-                return true;
-            } else
-            {
-                // Return true if the ID or description match the search filter
-                return String.valueOf(productWithCategory.product().getId()).contains(searchFilter)
-                        || productWithCategory.product().getName().toLowerCase().contains(searchFilter.toLowerCase());
-            }
-        });
+        return searchFilter == null || searchFilter.isBlank() ? null : productService.search(searchFilter);
+    }
+
+
+    /**
+     * Helper method to filter the searchFilteredList to a search result, within the selected category
+     *
+     * @param matches the matching products, or null to show every product
+     */
+    private void applySearch(ProductSearchIndex.Result matches)
+    {
+        searchMatches = matches == null ? null : matches.products();
+        applyFilters();
     }
 
 
     /**
-     * Updates the predicate of the categoryFilteredList to search by categoryName and
-     * return the products that match the predicate <code>categoryFilter</code>.
+     * Filters the products to the category named <code>categoryFilter</code>. The category's products are looked up
+     * in the category bitmap index rather than comparing names for every product
      *
      * @param categoryFilter a <code>String</code> literal matching the category name
      */
     public void setCategoryFilter(String categoryFilter)
     {
-        // Get the list before filtering-avoids null lists
-        getCategoryFilteredList().setPredicate(productWithCategory ->
+        this.categoryFilter = categoryFilter;
+        refreshCategoryMatches();
+    }
+
+
+    /**
+     * Helper method to look up the products in the selected category again, e.g. after a product has been
+     * moved to another category, and re-apply the filters. Call on the JavaFX thread
+     */
+    private void refreshCategoryMatches()
+    {
+        if (categoryFilter == null
+                || categoryFilter.trim().isEmpty()
+                || categoryFilter.trim().equalsIgnoreCase("Select Category")) // ignore the "default category"
         {
-            if (categoryFilter == null
-                    || categoryFilter.trim().isEmpty()
-                    || categoryFilter.trim().equalsIgnoreCase("Select Category")) // ignore the "default category"
-            {
-                return true;
-            } else
-            {
-                // Return true if the category name matches the search filter
-                String lowercaseFilter = categoryFilter.toLowerCase().trim();
-                return productWithCategory.category().getName().toLowerCase().equals(lowercaseFilter);
-            }
-        });
+            categoryMatches = null;
+        } else
+        {
+            Category category = categoryService.getByName(categoryFilter);
+            categoryMatches = category == null ? new BitSet() : productService.getProductsInCategory(category.getId());
+        }
+        applyFilters();
+    }
+
+
+    /**
+     * Helper method to set the predicate of the searchFilteredList to the products matching both filters.
+     * Combining the filters is a single <code>BitSet.and</code>, so the predicate is only a bit check per product
+     */
+    private void applyFilters()
+    {
+        BitSet visible;
+        if (categoryMatches == null)
+        {
+            visible = searchMatches;
+        } else if (searchMatches == null)
+        {
+            visible = categoryMatches;
+        } else
+        {
+            visible = (BitSet) categoryMatches.clone();
+            visible.and(searchMatches);
+        }
+
+        // Get the list before filtering-avoids null lists
+        getSearchFilteredList().setPredicate(visible == null
+                ? productWithCategory -> true
+                : productWithCategory -> CategoryBitmapIndex.contains(visible, productWithCategory.product().getId()));
     }
 
 
@@ -228,7 +382,11 @@ public class WarehouseModel extends BaseModel
      */
     public void deleteItem(Product product)
     {
-        productService.deleteProduct(product);
+        writeExecutor.execute(() ->
+        {
+            // Delete on the background thread, the product list is patched by the ProductDeleted event
+            productService.deleteProduct(product);
+        });
     }
 
 
@@ -245,7 +403,17 @@ public class WarehouseModel extends BaseModel
     public void saveChanges(long id, String newName, String newImageName, String newPrice, String newStockQuantity,
             String newCategory)
     {
-        // Pass to the productService to be validated
-        productService.updateProduct(id, newName, newImageName, newPrice, newStockQuantity, newCategory);
+        writeExecutor.execute(() ->
+        {
+            // Pass to the productService to be validated on the background thread
+            productService.updateProduct(id, newName, newImageName, newPrice, newStockQuantity, newCategory);
+
+            String error = productService.userError().get();
+            if (!error.isEmpty())
+            {
+                productService.resetUserError();
+                Platform.runLater(() -> validationError.set(error));      // Observed by the controller
+            }
+        });
     }
 }
@@ -0,0 +1,372 @@
+package ci553.happyshop.data;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of Derby connections shared by all repositories. Opening a connection through
+ * <code>DriverManager</code> on every query is expensive, so connections are borrowed from the pool and
+ * handed back when the <code>PooledConnection</code> is closed.
+ * <p>
+ * Connections are validated before being handed out, idle connections are closed by a background reaper
+ * and callers waiting longer than the acquire timeout receive an <code>SQLTimeoutException</code>.
+ * Each connection keeps its own <code>StatementCache</code>, so the cache lives as long as the connection.
+ */
+public class ConnectionPool implements AutoCloseable
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    // Defaults used when no configuration is provided
+    public static final int DEFAULT_MAX_SIZE = 8;
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(5);
+    public static final Duration DEFAULT_ACQUIRE_TIMEOUT = Duration.ofSeconds(5);
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final DatabaseConnection dbConnection;      // Opens new physical connections
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long acquireTimeoutMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;                    // One permit per connection that may be checked out
+    private final Deque<PooledConnection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final Set<PooledConnection> openConnections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong retiredStatementHits = new AtomicLong();     // Statement cache counters of closed connections
+    private final AtomicLong retiredStatementMisses = new AtomicLong();
+    private final ScheduledExecutorService idleReaper;
+    private volatile boolean closed = false;
+
+
+    /**
+     * Constructs a ConnectionPool with the default size and timeouts
+     *
+     * @param dbConnection the <code>DatabaseConnection</code> used to open physical connections
+     */
+    public ConnectionPool(@NotNull DatabaseConnection dbConnection)
+    {
+        this(dbConnection, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT, DEFAULT_ACQUIRE_TIMEOUT);
+    }
+
+
+    /**
+     * Constructs a ConnectionPool with the default statement cache size
+     *
+     * @param dbConnection   the <code>DatabaseConnection</code> used to open physical connections
+     * @param maxSize        the maximum number of connections checked out at once
+     * @param idleTimeout    how long a connection may sit unused before it is closed
+     * @param acquireTimeout how long a caller may wait for a free connection
+     */
+    public ConnectionPool(@NotNull DatabaseConnection dbConnection, int maxSize, @NotNull Duration idleTimeout,
+            @NotNull Duration acquireTimeout)
+    {
+        this(dbConnection, maxSize, idleTimeout, acquireTimeout, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+
+    /**
+     * Constructs a ConnectionPool and starts the idle connection reaper
+     *
+     * @param dbConnection       the <code>DatabaseConnection</code> used to open physical connections
+     * @param maxSize            the maximum number of connections checked out at once
+     * @param idleTimeout        how long a connection may sit unused before it is closed
+     * @param acquireTimeout     how long a caller may wait for a free connection
+     * @param statementCacheSize the number of prepared statements cached per connection
+     */
+    public ConnectionPool(@NotNull DatabaseConnection dbConnection, int maxSize, @NotNull Duration idleTimeout,
+            @NotNull Duration acquireTimeout, int statementCacheSize)
+    {
+        if (maxSize < 1)
+        {
+            throw new IllegalArgumentException("Connection pool size must be at least 1");
+        }
+
+        this.dbConnection = dbConnection;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeout.toMillis();
+        this.acquireTimeoutMillis = acquireTimeout.toMillis();
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);    // Fair, so waiting callers are served in order
+
+        // Periodically close connections that have not been used within the idle timeout
+        this.idleReaper = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "ConnectionPool-Reaper");
+            thread.setDaemon(true);     // Never keep the JVM alive
+            return thread;
+        });
+        long reapInterval = Math.max(1000, idleTimeoutMillis / 2);
+        idleReaper.scheduleWithFixedDelay(this::closeIdleConnections, reapInterval, reapInterval, TimeUnit.MILLISECONDS);
+
+        logger.info("Created connection pool for {} with max size {}", dbConnection.dbURL(), maxSize);
+    }
+
+
+    /**
+     * Borrows a connection from the pool, opening a new one if no valid idle connection exists.
+     * The connection is returned to the pool when it is closed.
+     *
+     * @return a <code>PooledConnection</code>
+     * @throws SQLException if the pool is closed, the wait timed out, a connection could not be opened
+     *                      or <code>FxThreadGuard</code> refused access from the JavaFX thread
+     */
+    public @NotNull PooledConnection getConnection() throws SQLException
+    {
+        if (closed)
+        {
+            throw new SQLException("Connection pool is closed");
+        }
+        FxThreadGuard.check("Database connection borrowed");
+
+        // Wait for a permit, counting the caller as waiting until one is available
+        waitingCount.incrementAndGet();
+        boolean acquired;
+        try
+        {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        } finally
+        {
+            waitingCount.decrementAndGet();
+        }
+
+        if (!acquired)
+        {
+            throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis + "ms waiting for a database connection");
+        }
+
+        try
+        {
+            PooledConnection connection = takeIdleOrOpen();
+            activeCount.incrementAndGet();
+            return connection;
+        } catch (SQLException e)
+        {
+            permits.release();  // Give the permit back if no connection could be opened
+            throw e;
+        }
+    }
+
+
+    /**
+     * Returns a connection to the pool. Called by <code>PooledConnection.close()</code>.
+     * Uncommitted work is rolled back so the next borrower always starts in auto-commit mode.
+     *
+     * @param connection the <code>PooledConnection</code> being returned
+     */
+    void release(@NotNull PooledConnection connection)
+    {
+        activeCount.decrementAndGet();
+        try
+        {
+            if (closed || connection.isPhysicallyClosed())
+            {
+                connection.closePhysically();
+            } else
+            {
+                connection.reset();
+                idleConnections.offerFirst(connection);     // LIFO keeps recently used connections warm
+            }
+        } catch (SQLException e)
+        {
+            logger.warn("Discarding connection that could not be reset", e);
+            connection.closePhysically();
+        } finally
+        {
+            permits.release();
+        }
+    }
+
+
+    /**
+     * Closes the pool. Idle connections are closed immediately, checked out connections are closed when returned.
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+        idleReaper.shutdownNow();
+
+        PooledConnection connection;
+        while ((connection = idleConnections.pollFirst()) != null)
+        {
+            connection.closePhysically();
+        }
+
+        logger.info("Closed connection pool for {}", dbConnection.dbURL());
+    }
+
+
+    /**
+     * Gets the number of connections currently checked out
+     *
+     * @return the number of active connections
+     */
+    public int getActiveCount()
+    {
+        return activeCount.get();
+    }
+
+
+    /**
+     * Gets the number of open connections waiting in the pool
+     *
+     * @return the number of idle connections
+     */
+    public int getIdleCount()
+    {
+        return idleConnections.size();
+    }
+
+
+    /**
+     * Gets the number of callers currently waiting for a connection
+     *
+     * @return the number of waiting callers
+     */
+    public int getWaitingCount()
+    {
+        return waitingCount.get();
+    }
+
+
+    /**
+     * Gets the maximum number of connections that may be checked out at once
+     *
+     * @return the pool size
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    /**
+     * Gets the number of statement lookups served from the per-connection caches
+     *
+     * @return the total statement cache hits
+     */
+    public long getStatementCacheHits()
+    {
+        long hits = retiredStatementHits.get();
+        for (PooledConnection connection : openConnections)
+        {
+            hits += connection.getStatementCache().getHitCount();
+        }
+        return hits;
+    }
+
+
+    /**
+     * Gets the number of statement lookups that had to prepare a new statement
+     *
+     * @return the total statement cache misses
+     */
+    public long getStatementCacheMisses()
+    {
+        long misses = retiredStatementMisses.get();
+        for (PooledConnection connection : openConnections)
+        {
+            misses += connection.getStatementCache().getMissCount();
+        }
+        return misses;
+    }
+
+
+    /**
+     * Checks whether the pool has been closed
+     *
+     * @return true if <code>close()</code> has been called
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+
+    /**
+     * Helper method to take the most recently used valid idle connection, or open a new one if none exist
+     *
+     * @return a <code>PooledConnection</code> ready to be handed out
+     * @throws SQLException if a new connection could not be opened
+     */
+    private @NotNull PooledConnection takeIdleOrOpen() throws SQLException
+    {
+        PooledConnection connection;
+        while ((connection = idleConnections.pollFirst()) != null)
+        {
+            if (connection.isValid(VALIDATION_TIMEOUT_SECONDS))
+            {
+                connection.markBorrowed();
+                return connection;
+            }
+
+            logger.debug("Discarding invalid idle connection");
+            connection.closePhysically();
+        }
+
+        logger.debug("Opening new pooled connection, {} active", activeCount.get());
+        connection = new PooledConnection(this, dbConnection.getConnection(), statementCacheSize);
+        openConnections.add(connection);
+        return connection;
+    }
+
+
+    /**
+     * Stops tracking a connection that is being closed, keeping its statement cache counters
+     *
+     * @param connection the <code>PooledConnection</code> being closed
+     */
+    void retire(@NotNull PooledConnection connection)
+    {
+        if (openConnections.remove(connection))
+        {
+            retiredStatementHits.addAndGet(connection.getStatementCache().getHitCount());
+            retiredStatementMisses.addAndGet(connection.getStatementCache().getMissCount());
+        }
+    }
+
+
+    /**
+     * Closes connections that have been idle for longer than the idle timeout. Runs on the reaper thread.
+     */
+    private void closeIdleConnections()
+    {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+
+        for (PooledConnection connection : idleConnections)
+        {
+            // remove() only succeeds if no borrower took the connection in the meantime
+            if (connection.getLastUsed() < cutoff && idleConnections.remove(connection))
+            {
+                connection.closePhysically();
+                logger.debug("Closed idle connection");
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ci553.happyshop.data;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Debug guard that reports database access made from the JavaFX application thread, where a slow query
+ * freezes the UI. <code>ConnectionPool</code> checks it every time a connection is borrowed.
+ * <p>
+ * The mode is read from the <code>happyshop.fxThreadGuard</code> system property: <code>off</code>,
+ * <code>warn</code> (the default, logs the offending call with its stack trace) or <code>fail</code>
+ * (refuses the connection, for finding every offender during development).
+ * The thread is recognised by name so the data layer does not depend on JavaFX
+ */
+public final class FxThreadGuard
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final String MODE_PROPERTY = "happyshop.fxThreadGuard";
+    private static final String FX_THREAD_NAME = "JavaFX Application Thread";
+
+    /**
+     * What the guard does when it finds database access on the JavaFX thread
+     */
+    public enum Mode
+    {
+        OFF, WARN, FAIL
+    }
+
+    private static volatile Mode mode = readMode();
+    private static final AtomicLong violations = new AtomicLong(0);
+
+
+    private FxThreadGuard() {}
+
+
+    /**
+     * Checks that the current thread is not the JavaFX application thread
+     *
+     * @param operation describes the access, used in the report
+     * @throws SQLException if the mode is <code>FAIL</code> and the access is on the JavaFX thread
+     */
+    static void check(String operation) throws SQLException
+    {
+        Mode current = mode;
+        if (current == Mode.OFF || !FX_THREAD_NAME.equals(Thread.currentThread().getName()))
+        {
+            return;
+        }
+
+        long count = violations.incrementAndGet();
+        if (current == Mode.FAIL)
+        {
+            throw new SQLException(operation + " on the JavaFX thread, move the call to a model executor");
+        }
+
+        // The stack trace shows which view or model made the call
+        logger.warn("{} on the JavaFX thread ({} so far)", operation, count, new Throwable("JavaFX thread database access"));
+    }
+
+
+    /**
+     * Sets the guard mode, overriding the system property
+     *
+     * @param newMode the new <code>Mode</code>
+     */
+    public static void setMode(Mode newMode)
+    {
+        mode = newMode;
+    }
+
+
+    /**
+     * Gets the number of database accesses made from the JavaFX thread so far
+     *
+     * @return the violation count
+     */
+    public static long getViolationCount()
+    {
+        return violations.get();
+    }
+
+
+    /**
+     * Helper method to read the mode from the system property, defaulting to <code>WARN</code>
+     */
+    private static Mode readMode()
+    {
+        String value = System.getProperty(MODE_PROPERTY, Mode.WARN.name());
+        try
+        {
+            return Mode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e)
+        {
+            logger.warn("Unknown {} value '{}', using WARN", MODE_PROPERTY, value);
+            return Mode.WARN;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package ci553.happyshop.data;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A connection borrowed from a <code>ConnectionPool</code>. Exposes the JDBC methods used by the repositories
+ * and returns the underlying connection to the pool when closed, so it can be used in try-with-resources blocks.
+ */
+public final class PooledConnection implements AutoCloseable
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    private final ConnectionPool pool;
+    private final Connection connection;    // The physical Derby connection
+    private final StatementCache statementCache;
+    private volatile long lastUsed;
+    private boolean returned = false;       // Guards against returning the same connection twice
+
+
+    /**
+     * Wraps a physical connection. Only created by the <code>ConnectionPool</code>
+     *
+     * @param pool               the pool this connection belongs to
+     * @param connection         the physical connection
+     * @param statementCacheSize the number of prepared statements kept open on this connection
+     */
+    PooledConnection(@NotNull ConnectionPool pool, @NotNull Connection connection, int statementCacheSize)
+    {
+        this.pool = pool;
+        this.connection = connection;
+        this.statementCache = new StatementCache(connection, statementCacheSize);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+
+    /**
+     * Creates a <code>PreparedStatement</code> for the given SQL
+     *
+     * @param sql the SQL text, with "?" placeholders for parameters
+     * @return a <code>PreparedStatement</code>
+     * @throws SQLException if the statement could not be prepared
+     */
+    public @NotNull PreparedStatement prepareStatement(@NotNull String sql) throws SQLException
+    {
+        return connection.prepareStatement(sql);
+    }
+
+
+    /**
+     * Gets a <code>PreparedStatement</code> for the given SQL from this connection's statement cache.
+     * The statement stays open when the connection is returned, so the caller must NOT close it;
+     * only the <code>ResultSet</code> it produces should be closed.
+     *
+     * @param sql the SQL text, with "?" placeholders for parameters
+     * @return a cached <code>PreparedStatement</code> with its parameters cleared
+     * @throws SQLException if the statement could not be prepared
+     */
+    public @NotNull PreparedStatement prepareCached(@NotNull String sql) throws SQLException
+    {
+        return statementCache.prepare(sql);
+    }
+
+
+    /**
+     * Gets a cached <code>PreparedStatement</code> that returns generated keys, for <code>INSERT</code> statements
+     * on tables with identity columns. Read the keys with <code>getGeneratedKeys()</code> after executing it.
+     * As with <code>prepareCached</code>, the caller must NOT close it
+     *
+     * @param sql the SQL text, with "?" placeholders for parameters
+     * @return a cached <code>PreparedStatement</code> with its parameters cleared
+     * @throws SQLException if the statement could not be prepared
+     */
+    public @NotNull PreparedStatement prepareCachedReturningKeys(@NotNull String sql) throws SQLException
+    {
+        return statementCache.prepare(sql, Statement.RETURN_GENERATED_KEYS);
+    }
+
+
+    /**
+     * Creates a plain <code>Statement</code>, used for DDL and procedure calls
+     *
+     * @return a <code>Statement</code>
+     * @throws SQLException if the statement could not be created
+     */
+    public @NotNull Statement createStatement() throws SQLException
+    {
+        return connection.createStatement();
+    }
+
+
+    /**
+     * Enables or disables auto-commit. Disable to group several statements into one transaction
+     *
+     * @param autoCommit true to commit after every statement
+     * @throws SQLException if the mode could not be changed
+     */
+    public void setAutoCommit(boolean autoCommit) throws SQLException
+    {
+        connection.setAutoCommit(autoCommit);
+    }
+
+
+    /**
+     * Commits the current transaction
+     *
+     * @throws SQLException if the commit failed
+     */
+    public void commit() throws SQLException
+    {
+        connection.commit();
+    }
+
+
+    /**
+     * Rolls back the current transaction
+     *
+     * @throws SQLException if the rollback failed
+     */
+    public void rollback() throws SQLException
+    {
+        connection.rollback();
+    }
+
+
+    /**
+     * Returns this connection to the pool. The physical connection stays open for the next borrower
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (returned)
+            {
+                return;
+            }
+            returned = true;
+        }
+
+        lastUsed = System.currentTimeMillis();
+        pool.release(this);
+    }
+
+
+    /**
+     * Marks this connection as checked out again after being taken from the idle list
+     */
+    synchronized void markBorrowed()
+    {
+        returned = false;
+    }
+
+
+    /**
+     * Gets the time this connection was last returned to the pool
+     *
+     * @return a <code>long</code> timestamp in milliseconds
+     */
+    long getLastUsed()
+    {
+        return lastUsed;
+    }
+
+
+    /**
+     * Checks that the physical connection is still usable
+     *
+     * @param timeoutSeconds the time to wait for the validation query
+     * @return true if the connection can be handed out
+     */
+    boolean isValid(int timeoutSeconds)
+    {
+        try
+        {
+            return !connection.isClosed() && connection.isValid(timeoutSeconds);
+        } catch (SQLException e)
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * Checks whether the physical connection has been closed
+     *
+     * @return true if the connection is closed
+     * @throws SQLException if the state could not be read
+     */
+    boolean isPhysicallyClosed() throws SQLException
+    {
+        return connection.isClosed();
+    }
+
+
+    /**
+     * Rolls back unfinished work and restores auto-commit before the connection is reused
+     *
+     * @throws SQLException if the connection could not be reset
+     */
+    void reset() throws SQLException
+    {
+        if (!connection.getAutoCommit())
+        {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+    }
+
+
+    /**
+     * Gets the statement cache owned by this connection
+     *
+     * @return the <code>StatementCache</code>
+     */
+    StatementCache getStatementCache()
+    {
+        return statementCache;
+    }
+
+
+    /**
+     * Closes the cached statements and the physical connection, logging instead of throwing on failure
+     */
+    void closePhysically()
+    {
+        pool.retire(this);
+        statementCache.close();
+        try
+        {
+            connection.close();
+        } catch (SQLException e)
+        {
+            logger.debug("Failed to close pooled connection", e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ci553.happyshop.data;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A fixed-size cache of <code>PreparedStatement</code> objects keyed by their SQL text. Each pooled connection
+ * owns one cache, so repeated queries skip Derby's parse and compile step.
+ * <p>
+ * When the cache is full the least recently used statement is closed and evicted.
+ */
+final class StatementCache
+{
+    private static final Logger logger = LogManager.getLogger();
+    private static final String GENERATED_KEYS_PREFIX = "[keys] ";    // Cache key prefix for statements returning keys
+
+    private final Connection connection;
+    private final int capacity;
+    private final Map<String, PreparedStatement> statements;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+
+    /**
+     * Constructs a StatementCache for a single physical connection
+     *
+     * @param connection the connection statements are prepared on
+     * @param capacity   the maximum number of statements kept open
+     */
+    StatementCache(@NotNull Connection connection, int capacity)
+    {
+        this.connection = connection;
+        this.capacity = capacity;
+
+        // accessOrder = true orders entries from least to most recently used
+        this.statements = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+            {
+                if (size() > StatementCache.this.capacity)
+                {
+                    closeQuietly(eldest.getValue());
+                    logger.debug("Evicted cached statement: {}", eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     * Gets the cached statement for the SQL text, preparing and caching it on a miss.
+     * Parameters left over from the previous use are cleared.
+     *
+     * @param sql the SQL text
+     * @return a <code>PreparedStatement</code> owned by the cache, which must not be closed by the caller
+     * @throws SQLException if the statement could not be prepared
+     */
+    @NotNull PreparedStatement prepare(@NotNull String sql) throws SQLException
+    {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+
+    /**
+     * Gets the cached statement for the SQL text and generated keys flag, preparing and caching it on a miss.
+     * The same SQL prepared with and without generated keys is cached as two separate statements
+     *
+     * @param sql               the SQL text
+     * @param autoGeneratedKeys <code>Statement.RETURN_GENERATED_KEYS</code> or <code>Statement.NO_GENERATED_KEYS</code>
+     * @return a <code>PreparedStatement</code> owned by the cache, which must not be closed by the caller
+     * @throws SQLException if the statement could not be prepared
+     */
+    synchronized @NotNull PreparedStatement prepare(@NotNull String sql, int autoGeneratedKeys) throws SQLException
+    {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? GENERATED_KEYS_PREFIX + sql : sql;
+        PreparedStatement statement = statements.get(key);
+
+        if (statement != null && !statement.isClosed())
+        {
+            hitCount++;
+            statement.clearParameters();
+            return statement;
+        }
+
+        missCount++;
+        statement = connection.prepareStatement(sql, autoGeneratedKeys);
+        statements.put(key, statement);
+        return statement;
+    }
+
+
+    /**
+     * Closes every cached statement. Called before the physical connection is closed
+     */
+    synchronized void close()
+    {
+        statements.values().forEach(StatementCache::closeQuietly);
+        statements.clear();
+    }
+
+
+    /**
+     * Gets the number of lookups served from the cache
+     *
+     * @return the hit count
+     */
+    synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+
+    /**
+     * Gets the number of lookups that had to prepare a new statement
+     *
+     * @return the miss count
+     */
+    synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+
+    /**
+     * Gets the number of statements currently cached
+     *
+     * @return the cache size
+     */
+    synchronized int size()
+    {
+        return statements.size();
+    }
+
+
+    /**
+     * Helper method to close a statement, ignoring failures
+     *
+     * @param statement the statement to close
+     */
+    private static void closeQuietly(@NotNull PreparedStatement statement)
+    {
+        try
+        {
+            statement.close();
+        } catch (SQLException e)
+        {
+            logger.debug("Failed to close cached statement", e);
+        }
+    }
+}
@@ -2,31 +2,32 @@ package ci553.happyshop.data.repository;
 
 import ci553.happyshop.catalogue.BasketItem;
 import ci553.happyshop.catalogue.BasketItemID;
-import ci553.happyshop.data.DatabaseConnection;
+import ci553.happyshop.data.ConnectionPool;
+import ci553.happyshop.data.PooledConnection;
 import ci553.happyshop.data.DatabaseException;
 import ci553.happyshop.data.repository.types.CommonRepository;
 import ci553.happyshop.data.repository.types.ListableRepository;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interfaces with the basket table. Implements common and listable repository
  */
 public class BasketRepository implements CommonRepository<BasketItem, BasketItemID>, ListableRepository<BasketItem>
 {
-    private final DatabaseConnection dbConnection;
+    private final ConnectionPool connectionPool;
 
 
-    public BasketRepository(DatabaseConnection dbConnection)
+    public BasketRepository(ConnectionPool connectionPool)
     {
-        this.dbConnection = dbConnection;
+        this.connectionPool = connectionPool;
     }
 
 
@@ -43,11 +44,9 @@ public class BasketRepository implements CommonRepository<BasketItem, BasketItem
         List<BasketItem> basketItems = new ArrayList<>();
 
         // Get a connection and execute the query
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection();
+             ResultSet resultSet = connection.prepareCached(query).executeQuery())
         {
-            ResultSet resultSet = statement.executeQuery();
-
             while (resultSet.next())
             {
                 basketItems.add(new BasketItem(
@@ -69,15 +68,16 @@ public class BasketRepository implements CommonRepository<BasketItem, BasketItem
      * Creates a new BasketItem
      *
      * @param item the BasketItem to insert
+     * @return the inserted BasketItem. Its composite key is supplied by the caller, so nothing is generated
      */
     @Override
-    public void insert(@NotNull BasketItem item)
+    public @NotNull BasketItem insert(@NotNull BasketItem item)
     {
         String query = "INSERT INTO BasketTable(customerID, productID, quantity) VALUES (?, ?, ?)";
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
             BasketItemID id = item.getId(); // Extract composite key
 
             // Set parameters
@@ -86,9 +86,52 @@ public class BasketRepository implements CommonRepository<BasketItem, BasketItem
             statement.setInt(3, item.getQuantity());
             statement.executeUpdate();
 
+            return item;
+        } catch (SQLException e)
+        {
+            throw new DatabaseException("Failed to add new item to BasketTable", e);
+        }
+    }
+
+
+    /**
+     * Creates several BasketItems with one JDBC batch in a single transaction
+     *
+     * @param items the BasketItems to insert
+     * @return the inserted BasketItems
+     */
+    @Override
+    public @NotNull List<BasketItem> insertAll(@NotNull List<BasketItem> items)
+    {
+        String query = "INSERT INTO BasketTable(customerID, productID, quantity) VALUES (?, ?, ?)";
+
+        try (PooledConnection connection = connectionPool.getConnection())
+        {
+            connection.setAutoCommit(false);
+            try
+            {
+                // No keys are generated, so the rows can be sent as a single batch
+                PreparedStatement statement = connection.prepareCached(query);
+                statement.clearBatch();
+                for (BasketItem item : items)
+                {
+                    statement.setLong(1, item.getId().customerID());
+                    statement.setLong(2, item.getId().productID());
+                    statement.setInt(3, item.getQuantity());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException e)
+            {
+                connection.rollback();
+                throw e;
+            }
+
+            return items;
         } catch (SQLException e)
         {
-            throw new DatabaseException("Failed to add new item to BasketTable");
+            throw new DatabaseException("Failed to add " + items.size() + " items to BasketTable", e);
         }
     }
 
@@ -104,23 +147,24 @@ public class BasketRepository implements CommonRepository<BasketItem, BasketItem
     {
         String query = "SELECT * FROM BasketTable WHERE productID = ? AND customerID = ?";
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
             BasketItem item = null;
 
             // Extract composite key values
             statement.setLong(1, id.productID());
             statement.setLong(2, id.customerID());
-            ResultSet results = statement.executeQuery();
-
-            // Get values from the result set
-            if (results.next())
+            try (ResultSet results = statement.executeQuery())
             {
-                // product id and customer id are the same
-                item = new BasketItem(id.productID(),
-                        id.customerID(),
-                        results.getInt("quantity"));
+                // Get values from the result set
+                if (results.next())
+                {
+                    // product id and customer id are the same
+                    item = new BasketItem(id.productID(),
+                            id.customerID(),
+                            results.getInt("quantity"));
+                }
             }
 
             return item;
@@ -145,9 +189,10 @@ public class BasketRepository implements CommonRepository<BasketItem, BasketItem
         // Extract composite primary key
         BasketItemID id = item.getId();
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
+
 
 
             // Set statement values
@@ -179,9 +224,9 @@ public class BasketRepository implements CommonRepository<BasketItem, BasketItem
         String query = "DELETE FROM BasketTable WHERE customerID = ? AND productID = ?";
 
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
             statement.setLong(1, id.customerID());
             statement.setLong(2, id.productID());
 
@@ -209,9 +254,9 @@ public class BasketRepository implements CommonRepository<BasketItem, BasketItem
         String query = "DELETE FROM BasketTable WHERE customerID = ?";
 
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
             statement.setLong(1, customerID);
 
             // 0 if basket item not found, else the number of rows affected
@@ -228,4 +273,87 @@ public class BasketRepository implements CommonRepository<BasketItem, BasketItem
     }
 
 
+    /**
+     * Writes the absolute quantities of several products in a customer's basket with one JDBC batch in a
+     * single transaction. A quantity of zero deletes the row, so no item is left with <code>quantity = 0</code>
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @param quantities the new quantity of each product, keyed by the primary key of the <code>Product</code>
+     */
+    public void saveQuantities(long customerID, @NotNull Map<Long, Integer> quantities)
+    {
+        String query = "MERGE INTO BasketTable b USING SYSIBM.SYSDUMMY1 " +
+                "ON b.customerID = ? AND b.productID = ? " +
+                "WHEN MATCHED AND CAST(? AS INT) = 0 THEN DELETE " +
+                "WHEN MATCHED THEN UPDATE SET quantity = CAST(? AS INT) " +
+                "WHEN NOT MATCHED AND CAST(? AS INT) > 0 THEN INSERT (customerID, productID, quantity) VALUES (?, ?, ?)";
+
+        try (PooledConnection connection = connectionPool.getConnection())
+        {
+            connection.setAutoCommit(false);
+            try
+            {
+                PreparedStatement statement = connection.prepareCached(query);
+                statement.clearBatch();
+                for (Map.Entry<Long, Integer> entry : quantities.entrySet())
+                {
+                    statement.setLong(1, customerID);
+                    statement.setLong(2, entry.getKey());
+                    statement.setInt(3, entry.getValue());
+                    statement.setInt(4, entry.getValue());
+                    statement.setInt(5, entry.getValue());
+                    statement.setLong(6, customerID);
+                    statement.setLong(7, entry.getKey());
+                    statement.setInt(8, entry.getValue());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException e)
+            {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e)
+        {
+            throw new DatabaseException("Failed to save " + quantities.size() + " basket items for customerID: " + customerID, e);
+        }
+    }
+
+
+    /**
+     * Retrieves the BasketItems belonging to a single customer. Uses the leading column of the
+     * <code>(customerID, productID)</code> primary key, so only that customer's rows are read
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @return a list of the customer's <code>BasketItem</code> objects, empty if the basket is empty
+     */
+    public List<BasketItem> findByCustomer(long customerID)
+    {
+        String query = "SELECT productID, quantity FROM BasketTable WHERE customerID = ?";
+        List<BasketItem> basketItems = new ArrayList<>();
+
+        try (PooledConnection connection = connectionPool.getConnection())
+        {
+            PreparedStatement statement = connection.prepareCached(query);
+            statement.setLong(1, customerID);
+
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    basketItems.add(new BasketItem(
+                            customerID,
+                            resultSet.getLong("productID"),
+                            resultSet.getInt("quantity")
+                    ));
+                }
+            }
+
+            return basketItems;
+        } catch (SQLException e)
+        {
+            throw new DatabaseException("Failed to get basket items for customerID: " + customerID, e);
+        }
+    }
 }
@@ -1,7 +1,8 @@
 package ci553.happyshop.data.repository;
 
 import ci553.happyshop.catalogue.Category;
-import ci553.happyshop.data.DatabaseConnection;
+import ci553.happyshop.data.ConnectionPool;
+import ci553.happyshop.data.PooledConnection;
 import ci553.happyshop.data.DatabaseException;
 import ci553.happyshop.data.repository.types.CommonRepository;
 import ci553.happyshop.data.repository.types.ListableRepository;
@@ -9,7 +10,6 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -21,12 +21,12 @@ import java.util.List;
  */
 public class CategoryRepository implements CommonRepository<Category, Long>, ListableRepository<Category>
 {
-    private final DatabaseConnection dbConnection;
+    private final ConnectionPool connectionPool;
 
 
-    public CategoryRepository(DatabaseConnection dbConnection)
+    public CategoryRepository(ConnectionPool connectionPool)
     {
-        this.dbConnection = dbConnection;
+        this.connectionPool = connectionPool;
     }
 
 
@@ -42,9 +42,8 @@ public class CategoryRepository implements CommonRepository<Category, Long>, Lis
         List<Category> categories = new ArrayList<>();
 
         // Get a connection and execute the query
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query);
-             ResultSet results = statement.executeQuery())
+        try (PooledConnection connection = connectionPool.getConnection();
+             ResultSet results = connection.prepareCached(query).executeQuery())
         {
             // Convert ResultSet to a category list
             while (results.next())
@@ -71,15 +70,17 @@ public class CategoryRepository implements CommonRepository<Category, Long>, Lis
     {
         String query = "SELECT * FROM CategoryTable WHERE id = ?";
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
+
             // Replace "?" with Long id
             statement.setLong(1, id);
-            ResultSet results = statement.executeQuery();
-
-            // Return the category or null if not found
-            return results.next() ? mapToCategory(results) : null;
+            try (ResultSet results = statement.executeQuery())
+            {
+                // Return the category or null if not found
+                return results.next() ? mapToCategory(results) : null;
+            }
 
         } catch (SQLException e)
         {
@@ -92,19 +93,14 @@ public class CategoryRepository implements CommonRepository<Category, Long>, Lis
      * Adds a new <code>Category</code> to the table
      *
      * @param category the category to insert
+     * @return the inserted category with its generated id
      */
     @Override
-    public void insert(@NotNull Category category)
+    public @NotNull Category insert(@NotNull Category category)
     {
-        String query = "INSERT INTO CategoryTable(name, description) "
-                + "VALUES(?, ?)";
-
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
-            // Set PreparedStatement parameters
-            setCategoryParameters(statement, category);
-            statement.executeUpdate();
+            return insertRow(connection, category);
         } catch (SQLException e)
         {
             throw new DatabaseException("Failed to insert category, id" + category.getId(), e);
@@ -112,6 +108,43 @@ public class CategoryRepository implements CommonRepository<Category, Long>, Lis
     }
 
 
+    /**
+     * Adds several new <code>Categories</code> to the table in one transaction
+     *
+     * @param categories the categories to insert
+     * @return the inserted categories with their generated ids, in the same order
+     */
+    @Override
+    public @NotNull List<Category> insertAll(@NotNull List<Category> categories)
+    {
+        List<Category> inserted = new ArrayList<>(categories.size());
+
+        try (PooledConnection connection = connectionPool.getConnection())
+        {
+            connection.setAutoCommit(false);
+            try
+            {
+                // Derby only returns the key of the last row in a JDBC batch, so the rows are executed
+                // one by one on the same connection and committed together
+                for (Category category : categories)
+                {
+                    inserted.add(insertRow(connection, category));
+                }
+                connection.commit();
+            } catch (SQLException e)
+            {
+                connection.rollback();
+                throw e;
+            }
+
+            return inserted;
+        } catch (SQLException e)
+        {
+            throw new DatabaseException("Failed to insert " + categories.size() + " categories", e);
+        }
+    }
+
+
     /**
      * Updates the details of an existing <code>Category</code> in the table
      *
@@ -122,9 +155,9 @@ public class CategoryRepository implements CommonRepository<Category, Long>, Lis
     {
         String query = "UPDATE CategoryTable SET name = ?, description = ? WHERE id = ?";
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
             statement.setString(1, category.getName());
             statement.setString(2, category.getDescription());
             statement.setLong(3, category.getId());
@@ -152,9 +185,9 @@ public class CategoryRepository implements CommonRepository<Category, Long>, Lis
     {
         String query = "DELETE FROM CategoryTable WHERE id = ?";
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
             statement.setLong(1, id);
 
             // 0 if category not found, else the number of rows affected
@@ -179,15 +212,17 @@ public class CategoryRepository implements CommonRepository<Category, Long>, Lis
     {
         String query = "SELECT * FROM CategoryTable WHERE name = ?";
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
+
             // Replace "?" with Long id
             statement.setString(1, name);
-            ResultSet results = statement.executeQuery();
-
-            // Return the category or null if not found
-            return results.next() ? mapToCategory(results) : null;
+            try (ResultSet results = statement.executeQuery())
+            {
+                // Return the category or null if not found
+                return results.next() ? mapToCategory(results) : null;
+            }
 
         } catch (SQLException e)
         {
@@ -196,6 +231,34 @@ public class CategoryRepository implements CommonRepository<Category, Long>, Lis
     }
 
 
+    /**
+     * Helper method to insert a single category on a borrowed connection and read back its generated id
+     *
+     * @param connection the connection to insert on
+     * @param category   the <code>Category</code> to insert
+     * @return a new <code>Category</code> with the generated id
+     * @throws SQLException if the insert failed or no key was generated
+     */
+    private @NotNull Category insertRow(@NotNull PooledConnection connection, @NotNull Category category) throws SQLException
+    {
+        String query = "INSERT INTO CategoryTable(name, description) VALUES(?, ?)";
+
+        PreparedStatement statement = connection.prepareCachedReturningKeys(query);
+        setCategoryParameters(statement, category);
+        statement.executeUpdate();
+
+        try (ResultSet keys = statement.getGeneratedKeys())
+        {
+            if (!keys.next())
+            {
+                throw new SQLException("No id generated for category: " + category.getName());
+            }
+
+            return new Category(keys.getLong(1), category.getName(), category.getDescription());
+        }
+    }
+
+
     /**
      * Helper method to set the category details on an <code>insert()</code> query
      *
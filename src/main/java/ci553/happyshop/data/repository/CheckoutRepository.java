@@ -0,0 +1,156 @@
+package ci553.happyshop.data.repository;
+
+import ci553.happyshop.catalogue.BasketItem;
+import ci553.happyshop.catalogue.DTO.CheckoutLine;
+import ci553.happyshop.catalogue.DTO.CheckoutResult;
+import ci553.happyshop.data.ConnectionPool;
+import ci553.happyshop.data.DatabaseException;
+import ci553.happyshop.data.PooledConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Purchases the contents of a basket in a single transaction. Stock is reduced with a conditional
+ * <code>UPDATE</code> so two customers buying the same product can never push the stock below zero,
+ * and purchased lines are removed from the basket in the same commit.
+ */
+public class CheckoutRepository
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    private final ConnectionPool connectionPool;
+
+
+    /**
+     * Constructs a CheckoutRepository with a shared <code>ConnectionPool</code>
+     *
+     * @param connectionPool the <code>ConnectionPool</code> to borrow connections from
+     */
+    public CheckoutRepository(ConnectionPool connectionPool)
+    {
+        this.connectionPool = connectionPool;
+    }
+
+
+    /**
+     * Checks out every line in a customer's basket. Lines with enough stock are purchased and deleted from
+     * the basket, lines without enough stock are left untouched and reported with their shortfall.
+     * Either all of this is committed or, on an error, none of it is.
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @return a <code>CheckoutResult</code> describing each line
+     */
+    public @NotNull CheckoutResult checkout(long customerID)
+    {
+        String basketQuery = "SELECT productID, quantity FROM BasketTable WHERE customerID = ? ORDER BY productID";
+        String stockQuery = "UPDATE ProductTable SET stockQuantity = stockQuantity - ? WHERE id = ? AND stockQuantity >= ?";
+        String deleteQuery = "DELETE FROM BasketTable WHERE customerID = ? AND productID = ?";
+
+        try (PooledConnection connection = connectionPool.getConnection())
+        {
+            connection.setAutoCommit(false);
+            try
+            {
+                // Lines are read in productID order so concurrent checkouts lock rows in the same order
+                List<BasketItem> basketLines = new ArrayList<>();
+                PreparedStatement basketStatement = connection.prepareCached(basketQuery);
+                basketStatement.setLong(1, customerID);
+                try (ResultSet resultSet = basketStatement.executeQuery())
+                {
+                    while (resultSet.next())
+                    {
+                        basketLines.add(new BasketItem(customerID, resultSet.getLong(1), resultSet.getInt(2)));
+                    }
+                }
+
+                if (basketLines.isEmpty())
+                {
+                    connection.commit();
+                    return new CheckoutResult(List.of());
+                }
+
+                // Reduce the stock of every line in one batch. A line only succeeds if there is enough stock
+                PreparedStatement stockStatement = connection.prepareCached(stockQuery);
+                stockStatement.clearBatch();
+                for (BasketItem line : basketLines)
+                {
+                    stockStatement.setInt(1, line.getQuantity());
+                    stockStatement.setLong(2, line.getId().productID());
+                    stockStatement.setInt(3, line.getQuantity());
+                    stockStatement.addBatch();
+                }
+                int[] updateCounts = stockStatement.executeBatch();
+
+                // Delete the purchased lines from the basket, work out the shortfall of the rest
+                List<CheckoutLine> results = new ArrayList<>();
+                PreparedStatement deleteStatement = connection.prepareCached(deleteQuery);
+                deleteStatement.clearBatch();
+                boolean anyPurchased = false;
+                for (int i = 0; i < basketLines.size(); i++)
+                {
+                    long productID = basketLines.get(i).getId().productID();
+                    int quantity = basketLines.get(i).getQuantity();
+
+                    if (updateCounts[i] > 0)
+                    {
+                        deleteStatement.setLong(1, customerID);
+                        deleteStatement.setLong(2, productID);
+                        deleteStatement.addBatch();
+                        anyPurchased = true;
+                        results.add(new CheckoutLine(productID, quantity, true, 0));
+                    } else
+                    {
+                        // The conditional update decides the outcome. Stock may have been raised since it ran,
+                        // so the re-read is only used to size the shortfall
+                        int inStock = getStockQuantity(connection, productID);
+                        results.add(new CheckoutLine(productID, quantity, false, Math.max(1, quantity - inStock)));
+                        logger.info("Not enough stock of productID: {}, requested {}, in stock {}", productID, quantity, inStock);
+                    }
+                }
+
+                if (anyPurchased)
+                {
+                    deleteStatement.executeBatch();
+                }
+
+                connection.commit();
+                return new CheckoutResult(results);
+            } catch (SQLException e)
+            {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e)
+        {
+            throw new DatabaseException("Failed to checkout basket for customerID: " + customerID, e);
+        }
+    }
+
+
+    /**
+     * Helper method to read the stock of a product inside the checkout transaction. Package-private so tests can
+     * change the stock between the conditional update and this read
+     *
+     * @param connection the connection running the checkout
+     * @param productID  the primary key of a <code>Product</code> object
+     * @return the stock quantity, or 0 if the product no longer exists
+     * @throws SQLException if the query failed
+     */
+    int getStockQuantity(@NotNull PooledConnection connection, long productID) throws SQLException
+    {
+        PreparedStatement statement = connection.prepareCached("SELECT stockQuantity FROM ProductTable WHERE id = ?");
+        statement.setLong(1, productID);
+
+        try (ResultSet resultSet = statement.executeQuery())
+        {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+}
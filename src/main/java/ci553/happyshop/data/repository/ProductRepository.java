@@ -3,7 +3,8 @@ package ci553.happyshop.data.repository;
 import ci553.happyshop.catalogue.Category;
 import ci553.happyshop.catalogue.Product;
 import ci553.happyshop.catalogue.DTO.ProductWithCategory;
-import ci553.happyshop.data.DatabaseConnection;
+import ci553.happyshop.data.ConnectionPool;
+import ci553.happyshop.data.PooledConnection;
 import ci553.happyshop.data.DatabaseException;
 import ci553.happyshop.data.repository.types.CommonRepository;
 import ci553.happyshop.data.repository.types.ListableRepository;
@@ -11,12 +12,12 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 
 /**
@@ -25,17 +26,20 @@ import java.util.List;
  */
 public class ProductRepository implements CommonRepository<Product, Long>, ListableRepository<Product>
 {
-    // dbConnection is used by all CRUD methods to connect to Derby
-    private final DatabaseConnection dbConnection;
+    // Returned by the paging methods when the last page has been read
+    public static final long END_OF_RESULTS = -1;
+
+    // connectionPool is used by all CRUD methods to borrow Derby connections
+    private final ConnectionPool connectionPool;
 
     /**
-     * Constructs a ProductRepository with a specified <code>DatabaseConnection</code>
+     * Constructs a ProductRepository with a shared <code>ConnectionPool</code>
      *
-     * @param dbConnection the <code>DatabaseConnection</code> object
+     * @param connectionPool the <code>ConnectionPool</code> to borrow connections from
      */
-    public ProductRepository(DatabaseConnection dbConnection)
+    public ProductRepository(ConnectionPool connectionPool)
     {
-        this.dbConnection = dbConnection;
+        this.connectionPool = connectionPool;
     }
 
 
@@ -51,9 +55,8 @@ public class ProductRepository implements CommonRepository<Product, Long>, Lista
         List<Product> products = new ArrayList<>();
 
         // Get a connection and execute the query
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query);
-             ResultSet results = statement.executeQuery())
+        try (PooledConnection connection = connectionPool.getConnection();
+             ResultSet results = connection.prepareCached(query).executeQuery())
         {
             // Convert ResultSet to product list
             while (results.next())
@@ -81,9 +84,8 @@ public class ProductRepository implements CommonRepository<Product, Long>, Lista
                """;
         List<ProductWithCategory> productsWithCategories = new ArrayList<>();
 
-        try (Connection connection = dbConnection.getConnection();
-        PreparedStatement statement = connection.prepareStatement(query);
-        ResultSet results = statement.executeQuery())
+        try (PooledConnection connection = connectionPool.getConnection();
+             ResultSet results = connection.prepareCached(query).executeQuery())
         {
             while(results.next())
             {
@@ -98,6 +100,63 @@ public class ProductRepository implements CommonRepository<Product, Long>, Lista
         }
     }
 
+    /**
+     * Streams one page of <code>Product</code> entities joined to their <code>Category</code>, ordered by id.
+     * Uses keyset pagination: the next page starts after the last id of the previous one, so every page
+     * costs the same no matter how deep into the catalogue it is
+     *
+     * @param afterId    the id of the last product of the previous page, or 0 for the first page
+     * @param pageSize   the maximum number of rows in the page
+     * @param categoryID the primary key of a <code>Category</code> to filter by, or null for all products
+     * @param consumer   called with each row as it is read
+     * @return the id of the last row if the page was full, or <code>END_OF_RESULTS</code> if there are no more rows
+     */
+    public long forEachWithCategory(long afterId, int pageSize, @Nullable Long categoryID,
+            @NotNull Consumer<ProductWithCategory> consumer)
+    {
+        // Separate queries, so the category filter can use ProductCategoryIdx
+        String query = categoryID == null ? """
+                SELECT p.id, p.name, p.imageName, p.unitPrice, p.stockQuantity, p.categoryID, c.id, c.name, c.description
+                FROM ProductTable p
+                JOIN CategoryTable c ON p.categoryID = c.id
+                WHERE p.id > ?
+                ORDER BY p.id
+                FETCH FIRST ? ROWS ONLY
+               """ : """
+                SELECT p.id, p.name, p.imageName, p.unitPrice, p.stockQuantity, p.categoryID, c.id, c.name, c.description
+                FROM ProductTable p
+                JOIN CategoryTable c ON p.categoryID = c.id
+                WHERE p.categoryID = ? AND p.id > ?
+                ORDER BY p.id
+                FETCH FIRST ? ROWS ONLY
+               """;
+
+        try (PooledConnection connection = connectionPool.getConnection())
+        {
+            PreparedStatement statement = connection.prepareCached(query);
+            setPageParameters(statement, afterId, pageSize, categoryID);
+
+            try (ResultSet results = statement.executeQuery())
+            {
+                int rows = 0;
+                long lastId = afterId;
+                while (results.next())
+                {
+                    ProductWithCategory productWithCategory = mapToProductWithCategory(results);
+                    lastId = productWithCategory.product().getId();
+                    rows++;
+                    consumer.accept(productWithCategory);
+                }
+
+                return rows < pageSize ? END_OF_RESULTS : lastId;
+            }
+        } catch (SQLException e)
+        {
+            throw new DatabaseException("Failed to get page of products after id: " + afterId, e);
+        }
+    }
+
+
     /**
      * Gets a specific <code>Product</code> by its ID
      *
@@ -109,15 +168,17 @@ public class ProductRepository implements CommonRepository<Product, Long>, Lista
     {
         String query = "SELECT * FROM ProductTable WHERE id = ?";
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
+
             // Replace "?" with Long id
             statement.setLong(1, id);
-            ResultSet results = statement.executeQuery();
-
-            // Return the product or null if not found
-            return results.next() ? mapToProduct(results) : null;
+            try (ResultSet results = statement.executeQuery())
+            {
+                // Return the product or null if not found
+                return results.next() ? mapToProduct(results) : null;
+            }
 
         } catch (SQLException e)
         {
@@ -140,15 +201,17 @@ public class ProductRepository implements CommonRepository<Product, Long>, Lista
                 WHERE p.id = ?
                """;
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
+
             // Replace "?" with Long id
             statement.setLong(1, id);
-            ResultSet results = statement.executeQuery();
-
-            // Return the product or null if not found
-            return results.next() ? mapToProductWithCategory(results) : null;
+            try (ResultSet results = statement.executeQuery())
+            {
+                // Return the product or null if not found
+                return results.next() ? mapToProductWithCategory(results) : null;
+            }
 
         } catch (SQLException e)
         {
@@ -160,25 +223,56 @@ public class ProductRepository implements CommonRepository<Product, Long>, Lista
      * Adds a new <code>Product</code> to the table
      *
      * @param product the product to insert
+     * @return the inserted product with its generated id
      */
     @Override
-    public void insert(@NotNull Product product)
+    public @NotNull Product insert(@NotNull Product product)
     {
-        String query = "INSERT INTO ProductTable(name, imageName, unitPrice, stockQuantity, categoryID) "
-                + "VALUES(?, ?, ?, ?, ?)";
-
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
-            // Set PreparedStatement parameters
-            setProductParameters(statement, product);
-            statement.executeUpdate();
+            return insertRow(connection, product);
         } catch (SQLException e)
         {
             throw new DatabaseException("Failed to insert product, id" + product.getId(), e);
         }
     }
 
+    /**
+     * Adds several new <code>Products</code> to the table in one transaction
+     *
+     * @param products the products to insert
+     * @return the inserted products with their generated ids, in the same order
+     */
+    @Override
+    public @NotNull List<Product> insertAll(@NotNull List<Product> products)
+    {
+        List<Product> inserted = new ArrayList<>(products.size());
+
+        try (PooledConnection connection = connectionPool.getConnection())
+        {
+            connection.setAutoCommit(false);
+            try
+            {
+                // Derby only returns the key of the last row in a JDBC batch, so the rows are executed
+                // one by one on the same connection and committed together
+                for (Product product : products)
+                {
+                    inserted.add(insertRow(connection, product));
+                }
+                connection.commit();
+            } catch (SQLException e)
+            {
+                connection.rollback();
+                throw e;
+            }
+
+            return inserted;
+        } catch (SQLException e)
+        {
+            throw new DatabaseException("Failed to insert " + products.size() + " products", e);
+        }
+    }
+
     /**
      * Updates the details of an existing <code>Product</code> in the table
      *
@@ -190,9 +284,9 @@ public class ProductRepository implements CommonRepository<Product, Long>, Lista
         String query = "UPDATE ProductTable SET name = ?, imageName = ?, unitPrice = ?, "
                 + "stockQuantity = ?, categoryID = ? WHERE id = ?";
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
             statement.setString(1, product.getName());
             statement.setString(2, product.getImageName());
             statement.setDouble(3, product.getUnitPrice());
@@ -222,9 +316,9 @@ public class ProductRepository implements CommonRepository<Product, Long>, Lista
     {
         String query = "DELETE FROM ProductTable WHERE id = ?";
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
             statement.setLong(1, id);
 
             // 0 if product not found, else the number of rows affected
@@ -258,6 +352,64 @@ public class ProductRepository implements CommonRepository<Product, Long>, Lista
     }
 
 
+    /**
+     * Helper method to insert a single product on a borrowed connection and read back its generated id
+     *
+     * @param connection the connection to insert on
+     * @param product    the <code>Product</code> to insert
+     * @return a new <code>Product</code> with the generated id
+     * @throws SQLException if the insert failed or no key was generated
+     */
+    private @NotNull Product insertRow(@NotNull PooledConnection connection, @NotNull Product product) throws SQLException
+    {
+        String query = "INSERT INTO ProductTable(name, imageName, unitPrice, stockQuantity, categoryID) "
+                + "VALUES(?, ?, ?, ?, ?)";
+
+        PreparedStatement statement = connection.prepareCachedReturningKeys(query);
+        setProductParameters(statement, product);
+        statement.executeUpdate();
+
+        try (ResultSet keys = statement.getGeneratedKeys())
+        {
+            if (!keys.next())
+            {
+                throw new SQLException("No id generated for product: " + product.getName());
+            }
+
+            return new Product(
+                    keys.getLong(1),
+                    product.getName(),
+                    product.getImageName(),
+                    product.getUnitPrice(),
+                    product.getStockQuantity(),
+                    product.getCategoryId()
+            );
+        }
+    }
+
+
+    /**
+     * Helper method to set the parameters of a keyset page query. The category comes first when present
+     *
+     * @param statement  the <code>PreparedStatement</code> to edit
+     * @param afterId    the id the page starts after
+     * @param pageSize   the maximum number of rows
+     * @param categoryID the category to filter by, or null
+     * @throws SQLException if the statement cannot be edited
+     */
+    private void setPageParameters(@NotNull PreparedStatement statement, long afterId, int pageSize,
+            @Nullable Long categoryID) throws SQLException
+    {
+        int index = 1;
+        if (categoryID != null)
+        {
+            statement.setLong(index++, categoryID);
+        }
+        statement.setLong(index++, afterId);
+        statement.setInt(index, pageSize);
+    }
+
+
     /**
      * Helper method to convert a <code>ResultSet</code> row to a <code>Product</code> object
      *
@@ -279,13 +431,15 @@ public class ProductRepository implements CommonRepository<Product, Long>, Lista
     }
 
     /**
-     * Helper method to convert a <code>ResultSet</code> row to a <code>ProductWithCategory</code> object
+     * Helper method to convert a <code>ResultSet</code> row to a <code>ProductWithCategory</code> object.
+     * Expects the product columns first, followed by the category columns, so it can be shared with other
+     * repositories that join to <code>ProductTable</code>
      * @param resultSet the result set to parse
      * @return a <code>ProductWithCategory</code> object
      * @throws SQLException if the <code>ResultSet</code> could not be parsed
      */
     @Contract("_ -> new")
-    private @NotNull ProductWithCategory mapToProductWithCategory(@NotNull ResultSet resultSet) throws SQLException
+    static @NotNull ProductWithCategory mapToProductWithCategory(@NotNull ResultSet resultSet) throws SQLException
     {
         return new ProductWithCategory(
                 new Product(    // Get the product object
@@ -1,71 +1,111 @@
 package ci553.happyshop.data.repository;
 
+import ci553.happyshop.data.ConnectionPool;
 import ci553.happyshop.data.DatabaseConnection;
+import ci553.happyshop.utility.Lazy;
 
 /**
  * Factory for creating singleton repository instances.
- * Avoids creating many small factory classes by centralizing repository creation
+ * Avoids creating many small factory classes by centralizing repository creation.
+ * <p>
+ * Every instance is held in a thread-safe <code>Lazy</code>, so repositories requested from several executor
+ * threads at once are still only created once. The database URL and pool size can be configured with the
+ * <code>happyshop.dbUrl</code> and <code>happyshop.poolSize</code> system properties, e.g. to point the
+ * application at an in-memory Derby database
  */
 public final class RepositoryFactory
 {
     private RepositoryFactory() {} // Final class, no instantiation
 
-    // Re-use the same URL and DatabaseConnection in all factories
-    private static final String DB_URL = "jdbc:derby:happyShopDB";
-    private static final DatabaseConnection dbConnection = new DatabaseConnection(DB_URL);
+    public static final String DB_URL_PROPERTY = "happyshop.dbUrl";
+    public static final String POOL_SIZE_PROPERTY = "happyshop.poolSize";
+    private static final String DEFAULT_DB_URL = "jdbc:derby:happyShopDB";
+
+    // Re-use the same ConnectionPool in all repositories, opened on first use
+    private static final Lazy<ConnectionPool> connectionPool = new Lazy<>(() ->
+    {
+        String dbURL = getDatabaseUrl();
+        int poolSize = Integer.getInteger(POOL_SIZE_PROPERTY, ConnectionPool.DEFAULT_MAX_SIZE);
+        return new ConnectionPool(new DatabaseConnection(dbURL), poolSize, ConnectionPool.DEFAULT_IDLE_TIMEOUT,
+                ConnectionPool.DEFAULT_ACQUIRE_TIMEOUT);
+    });
 
     // Singleton instance of each repository
-    private static ProductRepository productRepository;
-    private static CategoryRepository categoryRepository;
-    private static BasketRepository basketRepository;
-    private static UserRepository userRepository;
+    private static final Lazy<ProductRepository> productRepository = new Lazy<>(() -> new ProductRepository(getConnectionPool()));
+    private static final Lazy<CategoryRepository> categoryRepository = new Lazy<>(() -> new CategoryRepository(getConnectionPool()));
+    private static final Lazy<BasketRepository> basketRepository = new Lazy<>(() -> new BasketRepository(getConnectionPool()));
+    private static final Lazy<UserRepository> userRepository = new Lazy<>(() -> new UserRepository(getConnectionPool()));
+    private static final Lazy<CheckoutRepository> checkoutRepository = new Lazy<>(() -> new CheckoutRepository(getConnectionPool()));
+
 
+    /**
+     * Gets the URL of the application database, from the <code>happyshop.dbUrl</code> system property if it is set
+     * @return the JDBC URL
+     */
+    public static String getDatabaseUrl() {
+        return System.getProperty(DB_URL_PROPERTY, DEFAULT_DB_URL);
+    }
 
     /**
-     * Checks if the <code>ProductRepository</code> already exists and if not, creates a new instance
+     * Gets the <code>ProductRepository</code>, creating it on first use
      * @return the repository instance
      */
     public static ProductRepository getProductRepository() {
-        if (productRepository == null)
-        {
-            productRepository = new ProductRepository(dbConnection);
-        }
-        return productRepository;
+        return productRepository.get();
     }
 
     /**
-     * Checks if the <code>CategoryRepository</code> already exists and if not, creates a new instance
+     * Gets the <code>CategoryRepository</code>, creating it on first use
      * @return the repository instance
      */
     public static CategoryRepository getCategoryRepository() {
-        if (categoryRepository == null)
-        {
-            categoryRepository = new CategoryRepository(dbConnection);
-        }
-        return categoryRepository;
+        return categoryRepository.get();
     }
 
     /**
-     * Checks if the <code>BasketRepository</code> already exists and if not, creates a new instance
+     * Gets the <code>BasketRepository</code>, creating it on first use
      * @return the repository instance
      */
     public static BasketRepository getBasketRepository() {
-        if (basketRepository == null)
-        {
-            basketRepository = new BasketRepository(dbConnection);
-        }
-        return basketRepository;
+        return basketRepository.get();
     }
 
     /**
-     * Checks if the <code>UserRepository</code> already exists and if not, creates a new instance
+     * Gets the <code>UserRepository</code>, creating it on first use
      * @return the repository instance
      */
     public static UserRepository getCustomerRepository() {
-        if (userRepository == null)
-        {
-            userRepository = new UserRepository(dbConnection);
-        }
-        return userRepository;
+        return userRepository.get();
+    }
+
+    /**
+     * Gets the <code>CheckoutRepository</code>, creating it on first use
+     * @return the repository instance
+     */
+    public static CheckoutRepository getCheckoutRepository() {
+        return checkoutRepository.get();
+    }
+
+    /**
+     * Gets the <code>ConnectionPool</code> shared by all repositories, e.g. to read its counters
+     * @return the connection pool
+     */
+    public static ConnectionPool getConnectionPool() {
+        return connectionPool.get();
+    }
+
+    /**
+     * Opens the shared <code>ConnectionPool</code>. Called once at startup, so a bad configuration fails
+     * before any screen is shown
+     */
+    public static void startup() {
+        getConnectionPool();
+    }
+
+    /**
+     * Closes the shared <code>ConnectionPool</code> if it was opened. Called once when the application exits
+     */
+    public static void shutdown() {
+        connectionPool.ifInitialized(ConnectionPool::close);
     }
 }
@@ -2,7 +2,9 @@ package ci553.happyshop.data.repository;
 
 
 import ci553.happyshop.catalogue.User;
-import ci553.happyshop.data.DatabaseConnection;
+import ci553.happyshop.data.ConnectionPool;
+import ci553.happyshop.data.DatabaseException;
+import ci553.happyshop.data.PooledConnection;
 import ci553.happyshop.data.repository.types.CommonRepository;
 import ci553.happyshop.utility.enums.UserType;
 import org.apache.logging.log4j.LogManager;
@@ -11,10 +13,11 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -23,18 +26,18 @@ import java.util.Objects;
  */
 public class UserRepository implements CommonRepository<User, Long>
 {
-    // dbConnection is used by all methods to connect to Derby
-    private final DatabaseConnection dbConnection;
+    // connectionPool is used by all methods to borrow Derby connections
+    private final ConnectionPool connectionPool;
     private static final Logger logger = LogManager.getLogger();
 
     /**
-     * Constructs a UserRepository with a specified <code>DatabaseConnection</code>
+     * Constructs a UserRepository with a shared <code>ConnectionPool</code>
      *
-     * @param dbConnection the <code>DatabaseConnection</code> object
+     * @param connectionPool the <code>ConnectionPool</code> to borrow connections from
      */
-    public UserRepository(DatabaseConnection dbConnection)
+    public UserRepository(ConnectionPool connectionPool)
     {
-        this.dbConnection = dbConnection;
+        this.connectionPool = connectionPool;
     }
 
 
@@ -50,16 +53,18 @@ public class UserRepository implements CommonRepository<User, Long>
         String query = "SELECT * FROM UserTable WHERE username = ? AND password = ?";
 
         // Get a connection and execute the query
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
             statement.setString(1, username);
             statement.setString(2, password);
 
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next())   // If there is a row, there is a user
+            try (ResultSet resultSet = statement.executeQuery())
             {
-                return mapToUser(resultSet); // Map the row to a user and return it
+                if (resultSet.next())   // If there is a row, there is a user
+                {
+                    return mapToUser(resultSet); // Map the row to a user and return it
+                }
             }
 
             return null;    // Couldn't find a user
@@ -82,14 +87,15 @@ public class UserRepository implements CommonRepository<User, Long>
         String query = "SELECT COUNT(*) FROM UserTable WHERE username = ?"; // Get the no# of occurrences
 
         // Get a connection and execute the query
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
             statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-
-            // Returns true if there is at least 1 occurrence of the username, false otherwise
-            return (resultSet.next()) && (resultSet.getInt(1) > 0);
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                // Returns true if there is at least 1 occurrence of the username, false otherwise
+                return (resultSet.next()) && (resultSet.getInt(1) > 0);
+            }
         } catch (SQLException e)
         {
             logger.error("Failed to check if username exists", e);
@@ -108,15 +114,17 @@ public class UserRepository implements CommonRepository<User, Long>
     {
         String query = "SELECT * FROM UserTable WHERE id = ?";
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
+            PreparedStatement statement = connection.prepareCached(query);
+
             // Replace "?" with Long id
             statement.setLong(1, id);
-            ResultSet results = statement.executeQuery();
-
-            // Return the user or null if not found
-            return results.next() ? mapToUser(results) : null;
+            try (ResultSet results = statement.executeQuery())
+            {
+                // Return the user or null if not found
+                return results.next() ? mapToUser(results) : null;
+            }
 
         } catch (SQLException e)
         {
@@ -146,23 +154,84 @@ public class UserRepository implements CommonRepository<User, Long>
      * Adds a new <code>User</code> to the table
      *
      * @param user the <code>User</code> object to add
+     * @return the inserted <code>User</code> with its generated id
      */
     @Override
-    public void insert(@NotNull User user)
+    public @NotNull User insert(@NotNull User user)
     {
-        String query = "INSERT INTO UserTable (username, password, type) VALUES (?, ?, ?)";
+        try (PooledConnection connection = connectionPool.getConnection())
+        {
+            return insertRow(connection, user);
+        } catch (SQLException e)
+        {
+            throw new DatabaseException("Failed to add new user", e);
+        }
+    }
+
+
+    /**
+     * Adds several new <code>Users</code> to the table in one transaction
+     *
+     * @param users the <code>User</code> objects to add
+     * @return the inserted users with their generated ids, in the same order
+     */
+    @Override
+    public @NotNull List<User> insertAll(@NotNull List<User> users)
+    {
+        List<User> inserted = new ArrayList<>(users.size());
 
-        try (Connection connection = dbConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query))
+        try (PooledConnection connection = connectionPool.getConnection())
         {
-            statement.setString(1, user.username());
-            statement.setString(2, user.password());
-            statement.setString(3, user.userType().toString().toLowerCase());    // STAFF to staff
+            connection.setAutoCommit(false);
+            try
+            {
+                // Derby only returns the key of the last row in a JDBC batch, so the rows are executed
+                // one by one on the same connection and committed together
+                for (User user : users)
+                {
+                    inserted.add(insertRow(connection, user));
+                }
+                connection.commit();
+            } catch (SQLException e)
+            {
+                connection.rollback();
+                throw e;
+            }
 
-            statement.executeUpdate();
+            return inserted;
         } catch (SQLException e)
         {
-            logger.error("Failed to add new user", e);
+            throw new DatabaseException("Failed to add " + users.size() + " new users", e);
+        }
+    }
+
+
+    /**
+     * Helper method to insert a single user on a borrowed connection and read back its generated id
+     *
+     * @param connection the connection to insert on
+     * @param user       the <code>User</code> to insert
+     * @return a new <code>User</code> with the generated id
+     * @throws SQLException if the insert failed or no key was generated
+     */
+    private @NotNull User insertRow(@NotNull PooledConnection connection, @NotNull User user) throws SQLException
+    {
+        String query = "INSERT INTO UserTable (username, password, type) VALUES (?, ?, ?)";
+
+        PreparedStatement statement = connection.prepareCachedReturningKeys(query);
+        statement.setString(1, user.username());
+        statement.setString(2, user.password());
+        statement.setString(3, user.userType().toString().toLowerCase());    // STAFF to staff
+        statement.executeUpdate();
+
+        try (ResultSet keys = statement.getGeneratedKeys())
+        {
+            if (!keys.next())
+            {
+                throw new SQLException("No id generated for new user");
+            }
+
+            return new User(keys.getLong(1), user.username(), user.password(), user.userType());
         }
     }
 
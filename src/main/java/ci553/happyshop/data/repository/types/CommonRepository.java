@@ -3,6 +3,8 @@ package ci553.happyshop.data.repository.types;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+
 /**
  * Defines base CRUD operations to be implemented by more specific repositories.
  * Does not implement <code>getAll</code> methods.
@@ -16,8 +18,20 @@ public interface CommonRepository<Type, ID>
      * Creates a new entity
      *
      * @param entity the entity to insert
+     * @return the persisted entity, including any generated primary key
+     */
+    @NotNull
+    Type insert(@NotNull Type entity);
+
+
+    /**
+     * Creates several entities in a single transaction. Either all of them are inserted or none are
+     *
+     * @param entities the entities to insert
+     * @return the persisted entities in the same order, including any generated primary keys
      */
-    void insert(@NotNull Type entity);
+    @NotNull
+    List<Type> insertAll(@NotNull List<Type> entities);
 
     /**
      * Retrieves an entity by its ID
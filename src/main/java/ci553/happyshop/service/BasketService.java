@@ -1,10 +1,12 @@
 package ci553.happyshop.service;
 
 import ci553.happyshop.catalogue.DTO.BasketItemWithDetails;
-import javafx.beans.property.ReadOnlyIntegerProperty;
+import ci553.happyshop.catalogue.DTO.CheckoutResult;
+import ci553.happyshop.service.event.ChangeEventBus;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Business logic methods for processing data before accessing the data layer.
@@ -40,6 +42,14 @@ public interface BasketService
      */
     int getQuantity(long customerID, long productID);
 
+    /**
+     * Returns the quantity of every item in a customer's basket
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @return the quantity of each product, keyed by the primary key of the <code>Product</code>
+     */
+    Map<Long, Integer> getQuantities(long customerID);
+
     /**
      * Gets the total price of all the BasketItems linked to this customerID
      *
@@ -68,17 +78,18 @@ public interface BasketService
 
 
     /**
-     * Reduces stock of all items in the basket of a specified <code>customerID</code>,
-     * then clears their basket
+     * Reduces stock of all items in the basket of a specified <code>customerID</code> and removes them from
+     * their basket. Items without enough stock stay in the basket and are reported as shortfalls
      *
      * @param customerID the primary key of a <code>Customer</code> object
+     * @return a <code>CheckoutResult</code> describing each basket line
      */
-    void checkoutBasket(long customerID);
+    CheckoutResult checkoutBasket(long customerID);
 
     /**
-     * Exposes an observable form of the change counter
+     * Exposes the bus on which basket changes are published as <code>ChangeEvent</code>s
      *
-     * @return an immutable form of the counter
+     * @return the shared <code>ChangeEventBus</code>
      */
-    ReadOnlyIntegerProperty basketChanged();
+    ChangeEventBus changeEvents();
 }
@@ -0,0 +1,380 @@
+package ci553.happyshop.service;
+
+import ci553.happyshop.catalogue.BasketItem;
+import ci553.happyshop.catalogue.DTO.BasketItemWithDetails;
+import ci553.happyshop.catalogue.DTO.ProductWithCategory;
+import ci553.happyshop.data.DatabaseException;
+import ci553.happyshop.data.repository.BasketRepository;
+import ci553.happyshop.utility.handlers.ExecutorHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Write-behind store of customer baskets. Each basket is loaded from <code>BasketTable</code> on first use and
+ * then read and changed in memory, so quantity checks and totals make no database call and a burst of clicks
+ * only marks products as dirty. Dirty products are written with one batch per basket on a fixed interval,
+ * which can be set in milliseconds with the <code>happyshop.basketFlushMillis</code> system property.
+ * <p>
+ * Anything that reads <code>BasketTable</code> directly, such as checkout, must go through
+ * <code>flushAndRun</code> so it sees every change. <code>close</code> flushes all baskets on shutdown.
+ */
+public final class BasketStore implements AutoCloseable
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final String FLUSH_INTERVAL_PROPERTY = "happyshop.basketFlushMillis";
+    private static final long DEFAULT_FLUSH_MILLIS = 500;
+
+    private final BasketRepository basketRepository;
+    private final CatalogueCache catalogueCache;
+    private final Map<Long, CustomerBasket> baskets = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flushExecutor;
+
+
+    /**
+     * The in-memory state of one customer's basket. Every access holds <code>lock</code>, including flushes,
+     * so writes to the database happen in the same order as the changes
+     */
+    private static final class CustomerBasket
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<Long, Integer> quantities = new TreeMap<>();     // Product id order, like the queries
+        private final Set<Long> dirty = new HashSet<>();                   // Products changed since the last flush
+    }
+
+
+    /**
+     * Constructs a BasketStore and starts flushing at the configured interval
+     *
+     * @param basketRepository the <code>BasketRepository</code> to load and flush baskets with
+     * @param catalogueCache   the <code>CatalogueCache</code> used to price basket items
+     */
+    public BasketStore(@NotNull BasketRepository basketRepository, @NotNull CatalogueCache catalogueCache)
+    {
+        this(basketRepository, catalogueCache, Long.getLong(FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_MILLIS));
+    }
+
+
+    /**
+     * Constructs a BasketStore with a specific flush interval
+     *
+     * @param basketRepository the <code>BasketRepository</code> to load and flush baskets with
+     * @param catalogueCache   the <code>CatalogueCache</code> used to price basket items
+     * @param flushMillis      the time between flushes in milliseconds
+     */
+    public BasketStore(@NotNull BasketRepository basketRepository, @NotNull CatalogueCache catalogueCache, long flushMillis)
+    {
+        this.basketRepository = basketRepository;
+        this.catalogueCache = catalogueCache;
+
+        flushExecutor = ExecutorHandler.getScheduledExecutorService("basket-flush");
+        flushExecutor.scheduleWithFixedDelay(this::flushAll, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        logger.info("Flushing baskets every {} ms", flushMillis);
+    }
+
+
+    /**
+     * Gets the quantity of a product in a customer's basket
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @param productID  the primary key of a <code>Product</code> object
+     * @return the quantity, or 0 if the product is not in the basket
+     */
+    public int getQuantity(long customerID, long productID)
+    {
+        CustomerBasket basket = getBasket(customerID);
+        basket.lock.lock();
+        try
+        {
+            return basket.quantities.getOrDefault(productID, 0);
+        } finally
+        {
+            basket.lock.unlock();
+        }
+    }
+
+
+    /**
+     * Adds to the quantity of a product in a customer's basket
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @param productID  the primary key of a <code>Product</code> object
+     * @param delta      the number of items to add, must be positive
+     */
+    public void add(long customerID, long productID, int delta)
+    {
+        CustomerBasket basket = getBasket(customerID);
+        basket.lock.lock();
+        try
+        {
+            basket.quantities.merge(productID, delta, Integer::sum);
+            basket.dirty.add(productID);
+        } finally
+        {
+            basket.lock.unlock();
+        }
+    }
+
+
+    /**
+     * Subtracts from the quantity of a product in a customer's basket, removing it at zero
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @param productID  the primary key of a <code>Product</code> object
+     * @param delta      the number of items to remove, must be positive
+     * @return true if the product was in the basket
+     */
+    public boolean remove(long customerID, long productID, int delta)
+    {
+        CustomerBasket basket = getBasket(customerID);
+        basket.lock.lock();
+        try
+        {
+            Integer quantity = basket.quantities.get(productID);
+            if (quantity == null)
+            {
+                return false;
+            }
+
+            if (quantity <= delta)
+            {
+                basket.quantities.remove(productID);
+            } else
+            {
+                basket.quantities.put(productID, quantity - delta);
+            }
+            basket.dirty.add(productID);
+            return true;
+        } finally
+        {
+            basket.lock.unlock();
+        }
+    }
+
+
+    /**
+     * Empties a customer's basket in memory, then writes the removals to the database straight away.
+     * If the write fails the removals stay dirty and are retried on the next flush
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @return the primary keys of the products that were in the basket
+     */
+    public @NotNull List<Long> clear(long customerID)
+    {
+        CustomerBasket basket = getBasket(customerID);
+        basket.lock.lock();
+        try
+        {
+            // Removed products are written as 0, including lines that were never flushed
+            List<Long> cleared = new ArrayList<>(basket.quantities.keySet());
+            basket.dirty.addAll(cleared);
+            basket.quantities.clear();
+
+            try
+            {
+                flush(customerID, basket);
+            } catch (DatabaseException e)
+            {
+                logger.error("Failed to clear basket of customer {}, will retry", customerID, e);
+            }
+            return cleared;
+        } finally
+        {
+            basket.lock.unlock();
+        }
+    }
+
+
+    /**
+     * Gets a customer's basket with the product and category details attached from the <code>CatalogueCache</code>.
+     * Products that are no longer in the catalogue are left out
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @return a list of <code>BasketItemWithDetails</code> objects in product id order
+     */
+    public @NotNull List<BasketItemWithDetails> getAllWithDetails(long customerID)
+    {
+        List<BasketItemWithDetails> items = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : getQuantities(customerID).entrySet())
+        {
+            ProductWithCategory product = catalogueCache.getById(entry.getKey());
+            if (product != null)
+            {
+                items.add(new BasketItemWithDetails(product, entry.getValue()));
+            }
+        }
+        return items;
+    }
+
+
+    /**
+     * Gets the total price of a customer's basket using the cached unit prices
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @return the total price
+     */
+    public double getTotalPrice(long customerID)
+    {
+        double total = 0;
+        for (Map.Entry<Long, Integer> entry : getQuantities(customerID).entrySet())
+        {
+            ProductWithCategory product = catalogueCache.getById(entry.getKey());
+            if (product != null)
+            {
+                total += product.product().getUnitPrice() * entry.getValue();
+            }
+        }
+        return total;
+    }
+
+
+    /**
+     * Flushes a customer's basket, runs an action that works on <code>BasketTable</code> directly, then reloads
+     * the basket from the database. Changes to the basket wait until the action has finished
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @param action     the action to run, such as a checkout
+     * @return the result of the action
+     */
+    public <T> T flushAndRun(long customerID, @NotNull Supplier<T> action)
+    {
+        CustomerBasket basket = getBasket(customerID);
+        basket.lock.lock();
+        try
+        {
+            flush(customerID, basket);
+            T result = action.get();
+
+            // The action may have changed the rows, so reload them
+            basket.quantities.clear();
+            load(customerID, basket);
+            return result;
+        } finally
+        {
+            basket.lock.unlock();
+        }
+    }
+
+
+    /**
+     * Writes the dirty products of every loaded basket to the database. Failed baskets stay dirty and are
+     * retried on the next flush
+     */
+    public void flushAll()
+    {
+        baskets.forEach((customerID, basket) ->
+        {
+            basket.lock.lock();
+            try
+            {
+                flush(customerID, basket);
+            } catch (DatabaseException e)
+            {
+                logger.error("Failed to flush basket of customer {}, will retry", customerID, e);
+            } finally
+            {
+                basket.lock.unlock();
+            }
+        });
+    }
+
+
+    /**
+     * Stops the flush schedule and writes every remaining change
+     */
+    @Override
+    public void close()
+    {
+        flushExecutor.shutdown();
+        try
+        {
+            flushExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+        logger.info("Basket store closed");
+    }
+
+
+    /**
+     * Gets a copy of every quantity in a customer's basket
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @return the quantity of each product, keyed by product id in id order
+     */
+    public @NotNull Map<Long, Integer> getQuantities(long customerID)
+    {
+        CustomerBasket basket = getBasket(customerID);
+        basket.lock.lock();
+        try
+        {
+            return new TreeMap<>(basket.quantities);
+        } finally
+        {
+            basket.lock.unlock();
+        }
+    }
+
+
+    /**
+     * Helper method to get a customer's basket, loading it from the database on first use
+     */
+    private @NotNull CustomerBasket getBasket(long customerID)
+    {
+        return baskets.computeIfAbsent(customerID, id ->
+        {
+            CustomerBasket basket = new CustomerBasket();
+            load(id, basket);
+            return basket;
+        });
+    }
+
+
+    /**
+     * Helper method to read a customer's rows into a basket
+     */
+    private void load(long customerID, @NotNull CustomerBasket basket)
+    {
+        for (BasketItem item : basketRepository.findByCustomer(customerID))
+        {
+            basket.quantities.put(item.getId().productID(), item.getQuantity());
+        }
+        basket.dirty.clear();
+    }
+
+
+    /**
+     * Writes the dirty products of one basket as a single batch. Must be called holding the basket lock
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @param basket     the basket to flush
+     */
+    private void flush(long customerID, @NotNull CustomerBasket basket)
+    {
+        if (basket.dirty.isEmpty())
+        {
+            return;
+        }
+
+        // Absolute quantities, so re-sending after a failure is safe. Removed products are written as 0
+        Map<Long, Integer> changes = new TreeMap<>();
+        for (Long productID : basket.dirty)
+        {
+            changes.put(productID, basket.quantities.getOrDefault(productID, 0));
+        }
+
+        basketRepository.saveQuantities(customerID, changes);
+        basket.dirty.clear();
+        logger.debug("Flushed {} basket item(s) for customer {}", changes.size(), customerID);
+    }
+}
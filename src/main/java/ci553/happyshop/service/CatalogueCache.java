@@ -0,0 +1,385 @@
+package ci553.happyshop.service;
+
+import ci553.happyshop.catalogue.DTO.ProductWithCategory;
+import ci553.happyshop.data.repository.ProductRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through, in-memory snapshot of the product catalogue. The whole catalogue is loaded with one join and
+ * kept as a snapshot keyed by product id, with a secondary index by category, so repeated reads from lists,
+ * cards and stock checks do not go to the database.
+ * <p>
+ * Writers patch the single product they changed with <code>put</code>, <code>remove</code> or <code>refresh</code>.
+ * A patch updates the id map in place and swaps in a new copy of the one category list it touches, so its cost
+ * depends on the size of that category rather than the catalogue. <code>invalidate()</code> bumps the catalogue
+ * version for changes that touch many products, such as a category rename, and the next read reloads the whole
+ * snapshot. Only this application opens the embedded database, and every write goes through the services that
+ * patch this cache, so a snapshot has no expiry time.
+ */
+public class CatalogueCache
+{
+    private static final Logger logger = LogManager.getLogger();
+    private static final int LOAD_PAGE_SIZE = 1000;     // Rows read per keyset page when loading the catalogue
+
+    private final ProductRepository productRepository;
+
+    private final AtomicLong version = new AtomicLong(0);         // Bumped on every invalidation
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    private volatile Snapshot snapshot;         // Replaced on a reload, patched in place otherwise
+
+
+    /**
+     * The catalogue loaded at one version. Both maps are patched in place while the version is current; the
+     * category lists themselves are immutable and replaced whole, so callers can be given them directly
+     *
+     * @param version    the catalogue version the snapshot was loaded at, checked before every patch
+     * @param loadedAt   the time the snapshot was loaded, in milliseconds
+     * @param byId       every product keyed by id, in id order
+     * @param byCategory the products of each category keyed by category id, in id order
+     */
+    private record Snapshot(long version, long loadedAt, ConcurrentNavigableMap<Long, ProductWithCategory> byId,
+                            Map<Long, List<ProductWithCategory>> byCategory) {}
+
+
+    /**
+     * Constructs a CatalogueCache that loads from the specified repository
+     *
+     * @param productRepository the <code>ProductRepository</code> to read the catalogue from
+     */
+    public CatalogueCache(@NotNull ProductRepository productRepository)
+    {
+        this.productRepository = productRepository;
+    }
+
+
+    /**
+     * Marks the whole cached catalogue as stale. Call when a change affects many products, such as a category
+     * rename; a change to one product should be patched with <code>put</code>, <code>remove</code> or <code>refresh</code>
+     */
+    public void invalidate()
+    {
+        long newVersion = version.incrementAndGet();
+        logger.debug("Catalogue invalidated, now at version {}", newVersion);
+    }
+
+
+    /**
+     * Adds or replaces a single product in the current snapshot, moving it to its new category if it changed.
+     * Does nothing if no snapshot is loaded, since the next read loads the row anyway
+     *
+     * @param row the new <code>ProductWithCategory</code>
+     */
+    public synchronized void put(@NotNull ProductWithCategory row)
+    {
+        patch(row.product().getId(), row);
+    }
+
+
+    /**
+     * Removes a single product from the current snapshot
+     *
+     * @param productID the primary key of the deleted <code>Product</code>
+     */
+    public synchronized void remove(long productID)
+    {
+        patch(productID, null);
+    }
+
+
+    /**
+     * Re-reads a single product from the database and patches it into the snapshot, for changes made directly
+     * in the database such as a checkout reducing stock. The read is made holding the lock, so it cannot
+     * overwrite a newer row patched in by another writer while it was running
+     *
+     * @param productID the primary key of the changed <code>Product</code>
+     * @return the new <code>ProductWithCategory</code>, or null if the product no longer exists
+     */
+    public synchronized @Nullable ProductWithCategory refresh(long productID)
+    {
+        ProductWithCategory row = productRepository.getByIdWithCategory(productID);
+        patch(productID, row);
+        return row;
+    }
+
+
+    /**
+     * Gets every product with its category, in id order
+     *
+     * @return an unmodifiable list of <code>ProductWithCategory</code> objects
+     */
+    public @NotNull List<ProductWithCategory> getAll()
+    {
+        return List.copyOf(current().byId().values());
+    }
+
+
+    /**
+     * Gets the products of a single category, in id order
+     *
+     * @param categoryID the primary key of a <code>Category</code>
+     * @return an unmodifiable list of <code>ProductWithCategory</code> objects, empty if the category has no products
+     */
+    public @NotNull List<ProductWithCategory> getByCategory(long categoryID)
+    {
+        return current().byCategory().getOrDefault(categoryID, List.of());
+    }
+
+
+    /**
+     * Gets a single product with its category
+     *
+     * @param productID the primary key of a <code>Product</code>
+     * @return the <code>ProductWithCategory</code>, or null if no product has this id
+     */
+    public @Nullable ProductWithCategory getById(long productID)
+    {
+        return current().byId().get(productID);
+    }
+
+
+    /**
+     * Gets the number of reads served from the current snapshot
+     *
+     * @return the hit count
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+
+    /**
+     * Gets the number of reads that had to reload the catalogue from the database
+     *
+     * @return the miss count
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+
+    /**
+     * Gets the fraction of reads served without a database call
+     *
+     * @return the hit ratio between 0 and 1, or 0 if nothing has been read
+     */
+    public double getHitRatio()
+    {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+
+    /**
+     * Gets the time since the catalogue was last loaded in full. Patched products are newer than this
+     *
+     * @return the age in milliseconds, or -1 if nothing has been loaded yet
+     */
+    public long getStalenessMillis()
+    {
+        Snapshot current = snapshot;
+        return current == null ? -1 : System.currentTimeMillis() - current.loadedAt();
+    }
+
+
+    /**
+     * Gets the current catalogue version
+     *
+     * @return the number of invalidations so far
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+
+    /**
+     * Returns the current snapshot, reloading it first if it is missing or behind the catalogue version
+     *
+     * @return an up-to-date <code>Snapshot</code>
+     */
+    private @NotNull Snapshot current()
+    {
+        Snapshot current = snapshot;
+        if (isFresh(current))
+        {
+            hits.incrementAndGet();
+            return current;
+        }
+
+        synchronized (this)
+        {
+            // Another thread may have reloaded while this one was waiting
+            current = snapshot;
+            if (isFresh(current))
+            {
+                hits.incrementAndGet();
+                return current;
+            }
+
+            misses.incrementAndGet();
+            current = load();
+            snapshot = current;
+            return current;
+        }
+    }
+
+
+    /**
+     * Helper method to check a snapshot against the current version
+     */
+    private boolean isFresh(@Nullable Snapshot current)
+    {
+        return current != null && current.version() == version.get();
+    }
+
+
+    /**
+     * Helper method to replace or remove one product in the current snapshot. The id map is updated in place and
+     * only the category lists the product leaves or joins are copied. Must be called holding the lock on this cache
+     *
+     * @param productID the primary key of the <code>Product</code>
+     * @param row       the new row, or null to remove the product
+     */
+    private void patch(long productID, @Nullable ProductWithCategory row)
+    {
+        Snapshot current = snapshot;
+        if (!isFresh(current))
+        {
+            return;     // A full reload is due, and it will read the new row
+        }
+
+        ProductWithCategory old = row == null
+                ? current.byId().remove(productID)
+                : current.byId().put(productID, row);
+
+        Map<Long, List<ProductWithCategory>> byCategory = current.byCategory();
+        if (old != null)
+        {
+            byCategory.computeIfPresent(old.product().getCategoryId(), (id, list) -> withoutProduct(list, productID));
+        }
+        if (row != null)
+        {
+            byCategory.compute(row.product().getCategoryId(), (id, list) -> withProduct(list, row));
+        }
+        logger.debug("Patched product {} in the catalogue cache", productID);
+    }
+
+
+    /**
+     * Helper method to copy a category list without one product, or null if the list would be empty
+     */
+    private static @Nullable List<ProductWithCategory> withoutProduct(@NotNull List<ProductWithCategory> list, long productID)
+    {
+        int index = indexOf(list, productID);
+        if (index < 0)
+        {
+            return list;
+        }
+        if (list.size() == 1)
+        {
+            return null;
+        }
+
+        List<ProductWithCategory> remaining = new ArrayList<>(list);
+        remaining.remove(index);
+        return Collections.unmodifiableList(remaining);
+    }
+
+
+    /**
+     * Helper method to copy a category list with one product added or replaced, keeping id order
+     */
+    private static @NotNull List<ProductWithCategory> withProduct(@Nullable List<ProductWithCategory> list,
+                                                                 @NotNull ProductWithCategory row)
+    {
+        if (list == null)
+        {
+            return List.of(row);
+        }
+
+        List<ProductWithCategory> updated = new ArrayList<>(list);
+        int index = indexOf(list, row.product().getId());
+        if (index >= 0)
+        {
+            updated.set(index, row);
+        } else
+        {
+            updated.add(-index - 1, row);
+        }
+        return Collections.unmodifiableList(updated);
+    }
+
+
+    /**
+     * Helper method to binary search a category list by product id
+     *
+     * @return the index of the product, or <code>-(insertion point) - 1</code> if it is not in the list
+     */
+    private static int indexOf(@NotNull List<ProductWithCategory> list, long productID)
+    {
+        int low = 0;
+        int high = list.size() - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            long midID = list.get(mid).product().getId();
+            if (midID < productID)
+            {
+                low = mid + 1;
+            } else if (midID > productID)
+            {
+                high = mid - 1;
+            } else
+            {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+
+    /**
+     * Loads the whole catalogue from the database in keyset pages and builds the id and category maps.
+     * Rows arrive in id order, so each category list is built already sorted
+     *
+     * @return a new <code>Snapshot</code>
+     */
+    private @NotNull Snapshot load()
+    {
+        // Read the version first, so an invalidation during the load makes the snapshot stale straight away
+        long loadVersion = version.get();
+
+        ConcurrentNavigableMap<Long, ProductWithCategory> byId = new ConcurrentSkipListMap<>();
+        Map<Long, List<ProductWithCategory>> byCategory = new ConcurrentHashMap<>();
+
+        long afterId = 0;
+        do
+        {
+            afterId = productRepository.forEachWithCategory(afterId, LOAD_PAGE_SIZE, null, row ->
+            {
+                byId.put(row.product().getId(), row);
+                byCategory.computeIfAbsent(row.product().getCategoryId(), id -> new ArrayList<>()).add(row);
+            });
+        } while (afterId != ProductRepository.END_OF_RESULTS);
+
+        // Freeze the category lists so callers can be given them directly
+        byCategory.replaceAll((id, list) -> Collections.unmodifiableList(list));
+
+        logger.debug("Loaded {} products into the catalogue cache at version {}", byId.size(), loadVersion);
+        return new Snapshot(loadVersion, System.currentTimeMillis(), byId, byCategory);
+    }
+}
@@ -0,0 +1,163 @@
+package ci553.happyshop.service;
+
+import ci553.happyshop.catalogue.DTO.ProductWithCategory;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of the products in each category, held as one <code>BitSet</code> per category id with a bit
+ * set for each product id. Filtering by category is then a lookup instead of a name comparison per product, and
+ * category combined with search is a single <code>BitSet.and</code>.
+ * <p>
+ * The index is updated one product at a time with <code>put</code> and <code>remove</code> when products are
+ * created, updated, moved to another category or deleted. Callers are given copies, so they can combine them freely
+ */
+public class CategoryBitmapIndex
+{
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, BitSet> productsByCategory = new HashMap<>();
+    private final Map<Long, Long> categoryOfProduct = new HashMap<>();     // Product id -> category id, for moves
+
+
+    /**
+     * Replaces the whole index with the specified products
+     *
+     * @param products the products to index
+     */
+    public void rebuild(@NotNull Collection<ProductWithCategory> products)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            productsByCategory.clear();
+            categoryOfProduct.clear();
+            for (ProductWithCategory row : products)
+            {
+                add(row.product().getId(), row.product().getCategoryId());
+            }
+        } finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Adds a product to the index, moving it out of its previous category if it has one
+     *
+     * @param productID  the primary key of a <code>Product</code>
+     * @param categoryID the primary key of the product's <code>Category</code>
+     */
+    public void put(long productID, long categoryID)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            removeInternal(productID);
+            add(productID, categoryID);
+        } finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes a product from the index, if it is present
+     *
+     * @param productID the primary key of a <code>Product</code>
+     */
+    public void remove(long productID)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            removeInternal(productID);
+        } finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the products in a category
+     *
+     * @param categoryID the primary key of a <code>Category</code>
+     * @return a copy of the category's <code>BitSet</code>, empty if it has no products
+     */
+    public @NotNull BitSet getProducts(long categoryID)
+    {
+        lock.readLock().lock();
+        try
+        {
+            BitSet products = productsByCategory.get(categoryID);
+            return products == null ? new BitSet() : (BitSet) products.clone();
+        } finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Checks whether a product's bit is set
+     *
+     * @param products  a <code>BitSet</code> of product ids
+     * @param productID the primary key of a <code>Product</code>
+     * @return true if the product is in the set
+     */
+    public static boolean contains(@NotNull BitSet products, long productID)
+    {
+        return productID >= 0 && productID <= Integer.MAX_VALUE && products.get((int) productID);
+    }
+
+
+    /**
+     * Gets the bit used for a product id
+     *
+     * @param productID the primary key of a <code>Product</code>
+     * @return the bit index
+     * @throws IllegalArgumentException if the id does not fit in a <code>BitSet</code>
+     */
+    static int bitOf(long productID)
+    {
+        if (productID < 0 || productID > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Product id " + productID + " cannot be held in a BitSet");
+        }
+        return (int) productID;
+    }
+
+
+    /**
+     * Helper method to index a product. Must be called holding the write lock
+     */
+    private void add(long productID, long categoryID)
+    {
+        productsByCategory.computeIfAbsent(categoryID, id -> new BitSet()).set(bitOf(productID));
+        categoryOfProduct.put(productID, categoryID);
+    }
+
+
+    /**
+     * Helper method to remove a product from its category. Must be called holding the write lock
+     */
+    private void removeInternal(long productID)
+    {
+        Long categoryID = categoryOfProduct.remove(productID);
+        if (categoryID == null)
+        {
+            return;
+        }
+
+        BitSet products = productsByCategory.get(categoryID);
+        products.clear(bitOf(productID));
+        if (products.isEmpty())
+        {
+            productsByCategory.remove(categoryID);
+        }
+    }
+}
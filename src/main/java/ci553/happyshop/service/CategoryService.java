@@ -1,6 +1,8 @@
 package ci553.happyshop.service;
 
 import ci553.happyshop.catalogue.Category;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
 
@@ -15,4 +17,43 @@ public interface CategoryService
      * @return a list of <code>Category</code> objects
      */
     List<Category> getAll();
+
+    /**
+     * Gets a category by its primary key
+     * @param id the primary key of a <code>Category</code>
+     * @return the <code>Category</code>, or null if it does not exist
+     */
+    @Nullable Category getById(long id);
+
+    /**
+     * Gets a category by its name, ignoring case and surrounding whitespace
+     * @param name the name of a <code>Category</code>
+     * @return the <code>Category</code>, or null if it does not exist
+     */
+    @Nullable Category getByName(@NotNull String name);
+
+    /**
+     * Adds a new category
+     * @param category the <code>Category</code> to add
+     * @return the added <code>Category</code> with its generated id
+     */
+    @NotNull Category addCategory(@NotNull Category category);
+
+    /**
+     * Updates the name and description of an existing category
+     * @param category the <code>Category</code> with its new details
+     */
+    void updateCategory(@NotNull Category category);
+
+    /**
+     * Deletes a category
+     * @param id the primary key of the <code>Category</code> to delete
+     */
+    void deleteCategory(long id);
+
+    /**
+     * Reloads every category from the database. Called at startup, and after categories are changed
+     * outside this service
+     */
+    void refresh();
 }
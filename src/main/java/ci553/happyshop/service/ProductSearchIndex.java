@@ -0,0 +1,363 @@
+package ci553.happyshop.service;
+
+import ci553.happyshop.catalogue.DTO.ProductWithCategory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory search index over product names and ids, used by the search bars. Instead of lowercasing and
+ * scanning every product name on each keystroke, names are lowercased once and split into n-grams of up to
+ * <code>GRAM_LENGTH</code> characters, each with a posting set of the products containing it. A query no longer
+ * than a gram is answered by a single lookup; a longer query intersects the postings of its grams and checks
+ * the few remaining candidates. Product ids are held in a digit trie, so an id prefix is also a single walk.
+ * <p>
+ * Matches are returned as a <code>Result</code> with a <code>BitSet</code> of ids, which can be combined with a
+ * <code>CategoryBitmapIndex</code> set and checked cheaply in a <code>FilteredList</code> predicate. The grids keep
+ * the catalogue order, so matches are not ranked.
+ * The index is updated one product at a time with <code>put</code> and <code>remove</code> when products change
+ */
+public class ProductSearchIndex
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int GRAM_LENGTH = 3;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, String> names = new HashMap<>();                  // Lowercased name of each product
+    private final Map<String, Set<Long>> gramPostings = new HashMap<>();      // Products containing each n-gram
+    private final DigitTrie idTrie = new DigitTrie();
+
+
+    /**
+     * The products matching a query
+     *
+     * @param query    the normalised query
+     * @param products the matching product ids as a <code>BitSet</code>
+     */
+    public record Result(String query, BitSet products)
+    {
+        /**
+         * Checks whether a product matched the query
+         *
+         * @param productID the primary key of a <code>Product</code>
+         * @return true if the product matched
+         */
+        public boolean contains(long productID)
+        {
+            return CategoryBitmapIndex.contains(products, productID);
+        }
+
+
+        /**
+         * Gets the matching product ids
+         *
+         * @return a copy of the <code>BitSet</code>, so it can be combined without changing the result
+         */
+        @Override
+        public BitSet products()
+        {
+            return (BitSet) products.clone();
+        }
+    }
+
+
+    /**
+     * Replaces the whole index with the specified products
+     *
+     * @param products the products to index
+     */
+    public void rebuild(@NotNull Collection<ProductWithCategory> products)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            names.clear();
+            gramPostings.clear();
+            idTrie.clear();
+            for (ProductWithCategory row : products)
+            {
+                add(row.product().getId(), row.product().getName());
+            }
+            logger.debug("Indexed {} products with {} grams", names.size(), gramPostings.size());
+        } finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Adds a product to the index, or replaces its name if it is already indexed
+     *
+     * @param productID the primary key of a <code>Product</code>
+     * @param name      the product name
+     */
+    public void put(long productID, @NotNull String name)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            removeInternal(productID);
+            add(productID, name);
+        } finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes a product from the index, if it is present
+     *
+     * @param productID the primary key of a <code>Product</code>
+     */
+    public void remove(long productID)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            removeInternal(productID);
+        } finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Finds the products whose id starts with, or whose name contains, the query. Matching ignores case
+     * and surrounding whitespace
+     *
+     * @param query the search text
+     * @return the matching <code>Result</code>, with every product if the query is blank
+     */
+    public @NotNull Result search(@Nullable String query)
+    {
+        String normalised = normalise(query);
+
+        lock.readLock().lock();
+        try
+        {
+            BitSet products = new BitSet();
+            if (normalised.isEmpty())
+            {
+                names.keySet().forEach(id -> products.set(CategoryBitmapIndex.bitOf(id)));
+            } else
+            {
+                idTrie.startingWith(normalised).forEach(id -> products.set(CategoryBitmapIndex.bitOf(id)));
+                addNameMatches(normalised, products);
+            }
+            return new Result(normalised, products);
+        } finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the number of indexed products
+     *
+     * @return the product count
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return names.size();
+        } finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Helper method to add the products whose name contains the query
+     */
+    private void addNameMatches(@NotNull String query, @NotNull BitSet products)
+    {
+        for (Long id : nameCandidates(query))
+        {
+            // A candidate contains every gram, but not necessarily in sequence
+            if (names.get(id).contains(query))
+            {
+                products.set(CategoryBitmapIndex.bitOf(id));
+            }
+        }
+    }
+
+
+    /**
+     * Helper method to find the products that may contain the query, by intersecting the postings of its grams,
+     * smallest first
+     */
+    private @NotNull Set<Long> nameCandidates(@NotNull String query)
+    {
+        if (query.length() <= GRAM_LENGTH)
+        {
+            return gramPostings.getOrDefault(query, Set.of());
+        }
+
+        List<Set<Long>> postings = new ArrayList<>();
+        for (int i = 0; i + GRAM_LENGTH <= query.length(); i++)
+        {
+            Set<Long> posting = gramPostings.get(query.substring(i, i + GRAM_LENGTH));
+            if (posting == null)
+            {
+                return Set.of();        // A gram no product contains
+            }
+            postings.add(posting);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+
+        Set<Long> candidates = new HashSet<>(postings.getFirst());
+        for (int i = 1; i < postings.size() && !candidates.isEmpty(); i++)
+        {
+            candidates.retainAll(postings.get(i));
+        }
+        return candidates;
+    }
+
+
+    /**
+     * Helper method to index a product. Must be called holding the write lock
+     */
+    private void add(long productID, @NotNull String name)
+    {
+        String normalised = normalise(name);
+        names.put(productID, normalised);
+        for (String gram : grams(normalised))
+        {
+            gramPostings.computeIfAbsent(gram, g -> new HashSet<>()).add(productID);
+        }
+        idTrie.add(productID);
+    }
+
+
+    /**
+     * Helper method to remove a product from the index. Must be called holding the write lock
+     */
+    private void removeInternal(long productID)
+    {
+        String name = names.remove(productID);
+        if (name == null)
+        {
+            return;
+        }
+
+        for (String gram : grams(name))
+        {
+            Set<Long> posting = gramPostings.get(gram);
+            if (posting != null && posting.remove(productID) && posting.isEmpty())
+            {
+                gramPostings.remove(gram);
+            }
+        }
+        idTrie.remove(productID);
+    }
+
+
+    /**
+     * Helper method to get every distinct substring of a name up to <code>GRAM_LENGTH</code> characters
+     */
+    private static @NotNull Set<String> grams(@NotNull String name)
+    {
+        Set<String> grams = new HashSet<>();
+        for (int start = 0; start < name.length(); start++)
+        {
+            for (int end = start + 1; end <= Math.min(start + GRAM_LENGTH, name.length()); end++)
+            {
+                grams.add(name.substring(start, end));
+            }
+        }
+        return grams;
+    }
+
+
+    /**
+     * Helper method to lowercase and trim text once, before it is indexed or searched
+     */
+    private static @NotNull String normalise(@Nullable String text)
+    {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+
+    /**
+     * Trie over the decimal digits of product ids. Each node holds every id that starts with the digits on its path,
+     * so finding the ids with a prefix is a walk of one node per digit
+     */
+    private static final class DigitTrie
+    {
+        private static final class Node
+        {
+            private final Node[] children = new Node[10];
+            private final Set<Long> ids = new HashSet<>();
+        }
+
+        private Node root = new Node();
+
+
+        private void add(long id)
+        {
+            Node node = root;
+            for (char digit : String.valueOf(id).toCharArray())
+            {
+                int index = digit - '0';
+                if (node.children[index] == null)
+                {
+                    node.children[index] = new Node();
+                }
+                node = node.children[index];
+                node.ids.add(id);
+            }
+        }
+
+
+        private void remove(long id)
+        {
+            Node node = root;
+            for (char digit : String.valueOf(id).toCharArray())
+            {
+                node = node.children[digit - '0'];
+                if (node == null)
+                {
+                    return;
+                }
+                node.ids.remove(id);
+            }
+        }
+
+
+        private @NotNull Set<Long> startingWith(@NotNull String prefix)
+        {
+            Node node = root;
+            for (char digit : prefix.toCharArray())
+            {
+                if (digit < '0' || digit > '9')
+                {
+                    return Set.of();
+                }
+                node = node.children[digit - '0'];
+                if (node == null)
+                {
+                    return Set.of();
+                }
+            }
+            return node.ids;
+        }
+
+
+        private void clear()
+        {
+            root = new Node();
+        }
+    }
+}
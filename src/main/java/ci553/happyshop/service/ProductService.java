@@ -2,19 +2,39 @@ package ci553.happyshop.service;
 
 import ci553.happyshop.catalogue.DTO.ProductWithCategory;
 import ci553.happyshop.catalogue.Product;
-import javafx.beans.property.ReadOnlyIntegerProperty;
+import ci553.happyshop.service.event.ChangeEventBus;
 import javafx.beans.property.ReadOnlyStringProperty;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.BitSet;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface ProductService
 {
     /**
-     * Exposes an observable form of the change counter
+     * Exposes the bus on which product changes are published as <code>ChangeEvent</code>s
      *
-     * @return an immutable form of the counter
+     * @return the shared <code>ChangeEventBus</code>
      */
-    ReadOnlyIntegerProperty productsChanged();
+    ChangeEventBus changeEvents();
+
+    /**
+     * Searches product ids and names using the <code>ProductSearchIndex</code>, without a database call
+     *
+     * @param query the search text, matched against the start of product ids and anywhere in product names
+     * @return the matching <code>ProductSearchIndex.Result</code>
+     */
+    ProductSearchIndex.Result search(String query);
+
+    /**
+     * Gets the products in a category from the <code>CategoryBitmapIndex</code>, without a database call
+     *
+     * @param categoryID the primary key of a <code>Category</code>
+     * @return a <code>BitSet</code> with the bit of each product id in the category set
+     */
+    BitSet getProductsInCategory(long categoryID);
 
     /**
      * Exposes an immutable version of the validation error
@@ -45,6 +65,26 @@ public interface ProductService
      */
     List<ProductWithCategory> getAllWithCategories();
 
+    /**
+     * Gets a single Product with its connected Category
+     *
+     * @param productID the primary key of a <code>Product</code> object
+     * @return the <code>ProductWithCategory</code>, or null if the product does not exist
+     */
+    @Nullable ProductWithCategory getWithCategory(long productID);
+
+    /**
+     * Streams Products with their connected Categories one page at a time, in id order, so large catalogues
+     * can be shown progressively. Pages are cut from the cached catalogue rather than read from the database.
+     * The consumer is always called at least once, with an empty page if there are no products
+     *
+     * @param categoryID   the primary key of a <code>Category</code> to filter by, or null for all products
+     * @param pageSize     the maximum number of products per page
+     * @param pageConsumer called with each page of <code>ProductWithCategory</code> objects
+     */
+    void forEachPageWithCategories(@Nullable Long categoryID, int pageSize,
+            @NotNull Consumer<List<ProductWithCategory>> pageConsumer);
+
     /**
      * Deletes a product via the Repository
      *
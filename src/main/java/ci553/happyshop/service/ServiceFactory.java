@@ -1,82 +1,204 @@
 package ci553.happyshop.service;
 
+import ci553.happyshop.data.repository.RepositoryFactory;
+import ci553.happyshop.service.event.ChangeEventBus;
 import ci553.happyshop.service.impl.BasketServiceImpl;
 import ci553.happyshop.service.impl.CategoryServiceImpl;
 import ci553.happyshop.service.impl.UserServiceImpl;
 import ci553.happyshop.service.impl.ProductServiceImpl;
+import ci553.happyshop.utility.Lazy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Supplier;
 
 /**
  * Factory for creating singleton service instances. Services act as the business layer, mediating
  * between the data and presentation layer. Avoids creating many small factory classes by centralizing service creation.
  * Abstracts business logic from the presentation layer and simplifies the data layer.
+ * <p>
+ * Every instance is held in a thread-safe <code>Lazy</code>, so models calling from several executor threads
+ * share one service and one <code>ChangeEventBus</code>. A service implementation can be swapped through
+ * configuration by setting <code>happyshop.service.&lt;name&gt;</code> to the name of a class with a no-argument
+ * constructor, where the name is <code>basket</code>, <code>product</code>, <code>user</code> or <code>category</code>
  */
 public final class ServiceFactory
 {
+    private static final Logger logger = LogManager.getLogger();
+
     private ServiceFactory()
     {
     }     // Final class, no instantiation
 
+    public static final String IMPLEMENTATION_PROPERTY_PREFIX = "happyshop.service.";
 
-    // Create singleton service instances
-    private static BasketService basketService;
-    private static ProductService productService;
-    private static UserService userService;
-    private static CategoryService categoryService;
+
+    // Singleton service instances, created on first use
+    private static final Lazy<BasketService> basketService = configurable("basket", BasketService.class, BasketServiceImpl::new);
+    private static final Lazy<ProductService> productService = configurable("product", ProductService.class, ProductServiceImpl::new);
+    private static final Lazy<UserService> userService = configurable("user", UserService.class, UserServiceImpl::new);
+    private static final Lazy<CategoryService> categoryService = configurable("category", CategoryService.class, CategoryServiceImpl::new);
+    private static final Lazy<CatalogueCache> catalogueCache = new Lazy<>(() -> new CatalogueCache(RepositoryFactory.getProductRepository()));
+    private static final Lazy<BasketStore> basketStore = new Lazy<>(() -> new BasketStore(RepositoryFactory.getBasketRepository(), getCatalogueCache()));
+    private static final Lazy<ChangeEventBus> changeEventBus = new Lazy<>(ChangeEventBus::new);
+    private static final Lazy<CategoryBitmapIndex> categoryBitmapIndex = new Lazy<>(() ->
+    {
+        CategoryBitmapIndex index = new CategoryBitmapIndex();
+        index.rebuild(getCatalogueCache().getAll());
+        return index;
+    });
+    private static final Lazy<ProductSearchIndex> productSearchIndex = new Lazy<>(() ->
+    {
+        ProductSearchIndex index = new ProductSearchIndex();
+        index.rebuild(getCatalogueCache().getAll());
+        return index;
+    });
 
 
     /**
-     * Checks if the basket service already exists and if not, creates a new instance
+     * Gets the basket service, creating it on first use
      *
      * @return the service instance
      */
     public static BasketService getBasketService()
     {
-        if (basketService == null)
-        {
-            basketService = new BasketServiceImpl();
-        }
-        return basketService;
+        return basketService.get();
     }
 
 
     /**
-     * Checks if the product service already exists and if not, creates a new instance
+     * Gets the product service, creating it on first use
      *
      * @return the service instance
      */
     public static ProductService getProductService()
     {
-        if (productService == null)
-        {
-            productService = new ProductServiceImpl();
-        }
-        return productService;
+        return productService.get();
     }
 
 
     /**
-     * Checks if the login service already exists and if not, creates a new instance
+     * Gets the login service, creating it on first use
      * @return the service instance
      */
     public static UserService getLoginService()
     {
-        if (userService == null)
-        {
-            userService = new UserServiceImpl();
-        }
-        return userService;
+        return userService.get();
     }
 
     /**
-     * Checks if the category service already exists and if not, creates a new instance
+     * Gets the category service, creating it on first use
      * @return the service instance
      */
     public static CategoryService getCategoryService()
     {
-        if (categoryService == null)
+        return categoryService.get();
+    }
+
+
+    /**
+     * Gets the catalogue cache, creating it on first use.
+     * Shared by every service that reads or changes products
+     * @return the cache instance
+     */
+    public static CatalogueCache getCatalogueCache()
+    {
+        return catalogueCache.get();
+    }
+
+
+    /**
+     * Gets the basket store, creating it on first use
+     * @return the store instance
+     */
+    public static BasketStore getBasketStore()
+    {
+        return basketStore.get();
+    }
+
+
+    /**
+     * Gets the change event bus, creating it on first use.
+     * Shared by every service, so models can listen to product and basket changes in one place
+     * @return the bus instance
+     */
+    public static ChangeEventBus getChangeEventBus()
+    {
+        return changeEventBus.get();
+    }
+
+
+    /**
+     * Gets the product search index, building it from the catalogue on first use
+     * @return the index instance
+     */
+    public static ProductSearchIndex getProductSearchIndex()
+    {
+        return productSearchIndex.get();
+    }
+
+
+    /**
+     * Gets the category bitmap index, building it from the catalogue on first use
+     * @return the index instance
+     */
+    public static CategoryBitmapIndex getCategoryBitmapIndex()
+    {
+        return categoryBitmapIndex.get();
+    }
+
+
+    /**
+     * Loads the category registry, the catalogue and the product indexes before any screen needs them.
+     * Call once at startup, off the JavaFX thread, after the repositories have started
+     */
+    public static void startup()
+    {
+        getCategoryService().refresh();
+        getCategoryBitmapIndex();
+        int products = getProductSearchIndex().size();
+        logger.info("Services ready, {} products cached and indexed", products);
+    }
+
+
+    /**
+     * Writes any basket changes that have not been flushed yet. Call before the repositories are shut down
+     */
+    public static void shutdown()
+    {
+        basketStore.ifInitialized(BasketStore::close);
+    }
+
+
+    /**
+     * Helper method to create a <code>Lazy</code> service that uses the implementation named by its system property,
+     * or the default implementation if the property is not set
+     *
+     * @param name           the service name, appended to <code>IMPLEMENTATION_PROPERTY_PREFIX</code>
+     * @param type           the service interface
+     * @param defaultFactory creates the default implementation
+     * @return the <code>Lazy</code> holder
+     */
+    private static <T> Lazy<T> configurable(String name, @NotNull Class<T> type, @NotNull Supplier<? extends T> defaultFactory)
+    {
+        return new Lazy<>(() ->
         {
-            categoryService = new CategoryServiceImpl();
-        }
-        return categoryService;
+            String className = System.getProperty(IMPLEMENTATION_PROPERTY_PREFIX + name);
+            if (className == null)
+            {
+                return defaultFactory.get();
+            }
+
+            try
+            {
+                T service = type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+                logger.info("Using {} for the {} service", className, name);
+                return service;
+            } catch (ReflectiveOperationException | ClassCastException e)
+            {
+                throw new IllegalStateException("Cannot create " + name + " service " + className, e);
+            }
+        });
     }
 }
@@ -0,0 +1,40 @@
+package ci553.happyshop.service.event;
+
+/**
+ * A change to the data behind the product and basket views, published by the services on the
+ * <code>ChangeEventBus</code>. Each event names the single row that changed, so observers can patch one
+ * entry instead of reloading every list
+ */
+public sealed interface ChangeEvent
+{
+    /**
+     * The details of a product were changed
+     *
+     * @param productID the primary key of the <code>Product</code>
+     */
+    record ProductUpdated(long productID) implements ChangeEvent {}
+
+    /**
+     * A product was deleted
+     *
+     * @param productID the primary key of the <code>Product</code>
+     */
+    record ProductDeleted(long productID) implements ChangeEvent {}
+
+    /**
+     * The stock level of a product changed, for example after a checkout
+     *
+     * @param productID     the primary key of the <code>Product</code>
+     * @param stockQuantity the new quantity in stock
+     */
+    record StockChanged(long productID, int stockQuantity) implements ChangeEvent {}
+
+    /**
+     * The quantity of a product in a customer's basket changed
+     *
+     * @param customerID the primary key of the <code>Customer</code>
+     * @param productID  the primary key of the <code>Product</code>
+     * @param quantity   the new quantity, 0 if the line was removed
+     */
+    record BasketLineChanged(long customerID, long productID, int quantity) implements ChangeEvent {}
+}
@@ -0,0 +1,77 @@
+package ci553.happyshop.service.event;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Delivers <code>ChangeEvent</code>s from the services to the models. Listeners subscribe to one event type
+ * and are called synchronously on the publishing thread, which is usually a model's background executor,
+ * so they must move any JavaFX work onto the application thread with <code>Platform.runLater</code>
+ */
+public class ChangeEventBus
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    private final List<Listener<?>> listeners = new CopyOnWriteArrayList<>();
+
+
+    /**
+     * A listener for one type of event
+     *
+     * @param type     the event class to listen for
+     * @param consumer called with each matching event
+     */
+    private record Listener<E extends ChangeEvent>(Class<E> type, Consumer<? super E> consumer)
+    {
+        void deliver(ChangeEvent event)
+        {
+            if (type.isInstance(event))
+            {
+                consumer.accept(type.cast(event));
+            }
+        }
+    }
+
+
+    /**
+     * Registers a listener for one type of event
+     *
+     * @param type     the event class, such as <code>ChangeEvent.ProductUpdated.class</code>
+     * @param consumer called with each published event of that type
+     * @return a <code>Runnable</code> that removes the listener again
+     */
+    public <E extends ChangeEvent> @NotNull Runnable subscribe(@NotNull Class<E> type, @NotNull Consumer<? super E> consumer)
+    {
+        Listener<E> listener = new Listener<>(type, consumer);
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+
+    /**
+     * Delivers an event to every listener of its type. A failing listener is logged and does not stop
+     * the others
+     *
+     * @param event the event to publish
+     */
+    public void publish(@NotNull ChangeEvent event)
+    {
+        logger.debug("Publishing {}", event);
+
+        for (Listener<?> listener : listeners)
+        {
+            try
+            {
+                listener.deliver(event);
+            } catch (RuntimeException e)
+            {
+                logger.error("Listener failed for {}", event, e);
+            }
+        }
+    }
+}
@@ -1,23 +1,24 @@
 package ci553.happyshop.service.impl;
 
-import ci553.happyshop.catalogue.BasketItem;
-import ci553.happyshop.catalogue.BasketItemID;
 import ci553.happyshop.catalogue.DTO.BasketItemWithDetails;
+import ci553.happyshop.catalogue.DTO.CheckoutLine;
+import ci553.happyshop.catalogue.DTO.CheckoutResult;
 import ci553.happyshop.catalogue.DTO.ProductWithCategory;
-import ci553.happyshop.catalogue.Product;
-import ci553.happyshop.data.repository.BasketRepository;
-import ci553.happyshop.data.repository.ProductRepository;
+import ci553.happyshop.data.repository.CheckoutRepository;
 import ci553.happyshop.data.repository.RepositoryFactory;
 import ci553.happyshop.service.BasketService;
-import javafx.beans.property.IntegerProperty;
-import javafx.beans.property.ReadOnlyIntegerProperty;
-import javafx.beans.property.SimpleIntegerProperty;
+import ci553.happyshop.service.BasketStore;
+import ci553.happyshop.service.CatalogueCache;
+import ci553.happyshop.service.ServiceFactory;
+import ci553.happyshop.service.event.ChangeEvent.BasketLineChanged;
+import ci553.happyshop.service.event.ChangeEvent.StockChanged;
+import ci553.happyshop.service.event.ChangeEventBus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 /**
  * Implements methods from <code>BasketService</code>
@@ -25,31 +26,35 @@ import java.util.stream.Collectors;
 public class BasketServiceImpl implements BasketService
 {
     // Get repository instances
-    private final BasketRepository basketRepository = RepositoryFactory.getBasketRepository();
-    private final ProductRepository productRepository = RepositoryFactory.getProductRepository();
-    private final IntegerProperty changeProperty = new SimpleIntegerProperty(0); // Used for updating lists on changes
+    private final BasketStore basketStore = ServiceFactory.getBasketStore();
+    private final CheckoutRepository checkoutRepository = RepositoryFactory.getCheckoutRepository();
+    private final CatalogueCache catalogueCache = ServiceFactory.getCatalogueCache();
+    private final ChangeEventBus changeEventBus = ServiceFactory.getChangeEventBus();   // Used for updating lists on changes
 
     private static final Logger logger = LogManager.getLogger();
 
     /**
-     * Updates the <code>changeProperty</code>. Use whenever the underlying data has changed to trigger
-     * all observers waiting to update internal lists
+     * Publishes the new quantity of a basket line. Use whenever a line has changed so observers can
+     * update that single entry
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @param productID  the primary key of a <code>Product</code> object
      */
-    private void notifyChanged()
+    private void notifyLineChanged(long customerID, long productID)
     {
-        changeProperty.set(changeProperty.getValue() + 1);
-        logger.debug("notifyChanged() invoked");
+        changeEventBus.publish(new BasketLineChanged(customerID, productID, basketStore.getQuantity(customerID, productID)));
     }
 
 
     /**
-     * Exposes an observable form of the change counter
+     * Exposes the bus on which basket changes are published
      *
-     * @return an immutable form of the counter
+     * @return the shared <code>ChangeEventBus</code>
      */
-    public ReadOnlyIntegerProperty basketChanged()
+    @Override
+    public ChangeEventBus changeEvents()
     {
-        return changeProperty;
+        return changeEventBus;
     }
 
     /**
@@ -62,21 +67,16 @@ public class BasketServiceImpl implements BasketService
     @Override
     public void decreaseOrRemoveItem(long customerID, long productID)
     {
-        int currentQuantity = getQuantity(customerID, productID);
-
         logger.info("Removing product with id: {} from basket", productID);
-        if (currentQuantity > 1)
-        {   // If there still are items remaining after decrementing, update with quantity -1
-            logger.debug("Quantity in basket: {}, decrementing quantity by 1. ProductID: {}", currentQuantity, productID);
-            updateQuantity(customerID, productID, currentQuantity - 1);
+
+        // Changed in memory, the store writes it to the database on its next flush
+        if (basketStore.remove(customerID, productID, 1))
+        {
+            notifyLineChanged(customerID, productID);
         } else
         {
-            // If decrementing would result in quantity = 0, remove the item altogether
-            logger.debug("Quantity <= 1, deleting item. ProductID: {}", productID);
-            basketRepository.delete(new BasketItemID(customerID, productID));
+            logger.debug("Product with id: {} is not in the basket", productID);
         }
-
-        notifyChanged();
     }
 
 
@@ -90,30 +90,17 @@ public class BasketServiceImpl implements BasketService
     @Override
     public void addOrUpdateItem(long customerID, long productID, int quantity)
     {
-        // Get the current quantity of the item (if it doesn't yet exist, getQuantity returns 0)
-        int currentQuantity = getQuantity(customerID, productID);
-
         logger.info("Adding product with id: {} to basket", productID);
 
-        if (currentQuantity > 0)
-        {
-            // If it exists, update it
-            logger.debug("Product with id: {} already exists in basket with quantity {}. Updating quantity.", productID, currentQuantity);
-            updateQuantity(customerID, productID, quantity + currentQuantity);
-        } else
-        {
-            // If it doesn't exist, create it
-            logger.debug("Product with id: {} doesn't exist in basket. Adding new item", productID);
-            basketRepository.insert(new BasketItem(customerID, productID, quantity));
-        }
-
-        notifyChanged();
+        // Changed in memory, the store writes it to the database on its next flush
+        basketStore.add(customerID, productID, quantity);
+        notifyLineChanged(customerID, productID);
     }
 
 
     /**
      * Returns the quantity of an item in the <code>BasketTable</code>.
-     * Gets the item from the repository and extracts the quantity from it.
+     * Read from the in-memory basket, which includes changes that have not been flushed yet.
      *
      * @param customerID the primary key of a <code>Customer</code> object
      * @param productID  the primary key of a <code>Product</code> object
@@ -122,18 +109,20 @@ public class BasketServiceImpl implements BasketService
     @Override
     public int getQuantity(long customerID, long productID)
     {
-        // Get the list of basket items and get the quantity from it
-        List<BasketItem> items = basketRepository.getAll();
+        return basketStore.getQuantity(customerID, productID);
+    }
 
-        // Searches the list for the matching item. If found, gets the quantity. Otherwise, returns 0
-        return items.stream()
-                .filter(item -> item.getId().customerID() == customerID && item.getId().productID() == productID)
-                .findFirst()
-                .map(BasketItem::getQuantity)
-                .orElseGet(() ->
-                {
-                    return 0;
-                });
+
+    /**
+     * Returns the quantity of every item in a customer's basket, from the in-memory basket
+     *
+     * @param customerID the primary key of a <code>Customer</code> object
+     * @return the quantity of each product, keyed by the primary key of the <code>Product</code>
+     */
+    @Override
+    public Map<Long, Integer> getQuantities(long customerID)
+    {
+        return basketStore.getQuantities(customerID);
     }
 
 
@@ -146,21 +135,8 @@ public class BasketServiceImpl implements BasketService
     @Override
     public double getBasketTotalPrice(long customerID)
     {
-        // Get only the items matching the customerID
-        List<BasketItem> items = getAllByCustomerID(customerID);
-
-        /*
-        Gets all items matching customer ID, invokes getTotalPriceByID on each BasketItem then uses mapToDouble to
-        sum up the total prices into a double
-        */
-
-        return items.stream()
-                .mapToDouble(item ->
-                {
-                    // For each basket item retrieve the product's unit price and multiply by quantity
-                    return getTotalPriceByID(item.getId().customerID(), item.getId().productID());
-                })
-                .sum();
+        // Summed from the in-memory basket and the cached unit prices
+        return basketStore.getTotalPrice(customerID);
     }
 
     /**
@@ -171,8 +147,10 @@ public class BasketServiceImpl implements BasketService
     @Override
     public void clearBasket(long customerID)
     {
-        basketRepository.deleteAllByID(customerID);
-        notifyChanged();
+        for (long productID : basketStore.clear(customerID))
+        {
+            changeEventBus.publish(new BasketLineChanged(customerID, productID, 0));
+        }
     }
 
     /**
@@ -184,123 +162,46 @@ public class BasketServiceImpl implements BasketService
     @Override
     public @Nullable List<BasketItemWithDetails> getAll(long customerID)
     {
-        // Get only the items matching the customerID
-        List<BasketItem> filteredList = getAllByCustomerID(customerID);
-
-        /*
-        Returns a new list of BasketItemWithDetails objects. Equivalent of a for-each that gets the ProductWithCategory from
-        productRepository, then extracts the quantity from the BasketItem and creates a BasketItemWithDetails object.
-         */
-        return filteredList.stream()
-                .map(item -> new BasketItemWithDetails(
-                        productRepository.getByIdWithCategory(item.getId().productID()),
-                        item.getQuantity()))
-                .collect(Collectors.toList());
+        // Product and category details come from the catalogue cache rather than a join
+        return basketStore.getAllWithDetails(customerID);
     }
 
 
     /**
-     * Reduces stock of all items in the basket of a specified <code>customerID</code>,
-     * then clears their basket
+     * Reduces stock of all items in the basket of a specified <code>customerID</code> and removes them from
+     * their basket. Items without enough stock stay in the basket and are reported as shortfalls
      *
      * @param customerID the primary key of a <code>Customer</code> object
+     * @return a <code>CheckoutResult</code> describing each basket line
      */
     @Override
-    public void checkoutBasket(long customerID)
+    public CheckoutResult checkoutBasket(long customerID)
     {
-        // Get the items matching the customer id
-        List<BasketItem> basketItems = getAllByCustomerID(customerID);
+        // Pending basket changes are flushed first so the checkout sees them. Stock reduction and basket
+        // removal are then committed together in one transaction
+        CheckoutResult result = basketStore.flushAndRun(customerID, () -> checkoutRepository.checkout(customerID));
 
-        // Reduce the stock of each of the items via the productRepository
-        for (BasketItem item : basketItems)
+        // Purchased lines left the basket and reduced stock. Short lines are unchanged
+        for (CheckoutLine line : result.lines())
         {
-            // Get the product
-            Product product = productRepository.getById(item.getId().productID());
-
-            if (product == null)
-            {
-                logger.warn("Failed to get product with id: {}", item.getId().productID());
-            }
-            else
+            if (line.fulfilled())
             {
-                // Get the current quantity
-                int quantity = product.getStockQuantity();
-
-                // Reduce the quantity by the specified amount, using math.max to prevent negative values
-                product.setStockQuantity(Math.max(0, quantity - item.getQuantity()));   // If qty - ordered qty < 0, then set to 0 instead of a negative
+                changeEventBus.publish(new BasketLineChanged(customerID, line.productID(), 0));
 
-                logger.debug("Purchased {} of {}", item.getQuantity(), product);
-
-                // Dispatch the update
-                productRepository.update(product);
+                // Re-read only the purchased product, so its cached stock level is up to date
+                ProductWithCategory product = catalogueCache.refresh(line.productID());
+                if (product != null)
+                {
+                    changeEventBus.publish(new StockChanged(line.productID(), product.product().getStockQuantity()));
+                }
             }
         }
 
-        notifyChanged();
-
-        // Clear the basket
-        clearBasket(customerID);
-    }
-
-
-    /**
-     * Helper method to update the quantity of a basket item
-     *
-     * @param customerID  the primary key of a <code>Customer</code> object
-     * @param productID   the primary key of a <code>Product</code> object
-     * @param newQuantity the new quantity for the item
-     */
-    private void updateQuantity(long customerID, long productID, int newQuantity)
-    {
-        basketRepository.update(new BasketItem(customerID, productID, newQuantity));
-        notifyChanged();
-    }
-
-
-    /**
-     * Helper method to get only the <code>BasketItems</code> from a list where each item's <code>BasketItemID</code>
-     * has a <code>customerID</code> matching the parameter
-     *
-     * @param customerID the primary key of a <code>Customer</code> object
-     * @return a filtered list of <code>BasketItem</code> objects
-     */
-    private List<BasketItem> getAllByCustomerID(long customerID)
-    {
-        List<BasketItem> items = basketRepository.getAll();
-        // Returns a new list of elements matching the customer ID
-        return items.stream()
-                .filter(item -> item.getId().customerID() == customerID)
-                .collect(Collectors.toList());
-    }
-
-
-    /**
-     * Helper method to calculate the total price of a BasketItem
-     *
-     * @param customerID the primary key of a <code>Customer</code> object
-     * @param productID  the primary key of a <code>Product</code> object
-     * @return an <code>double</code> value of the total price
-     */
-    private double getTotalPriceByID(long customerID, long productID)
-    {
-        int quantity = getQuantity(customerID, productID);        // Get the quantity from the basket item
-
-        if (quantity == 0)        // If the item isn't in the basket, return 0
+        if (!result.isComplete())
         {
-            logger.debug("Price requested for missing BasketItem {} {}", customerID, productID);
-            return 0;
+            logger.warn("Checkout for customer {} had {} shortfall(s)", customerID, result.shortfalls().size());
         }
 
-        // Extract the unit price & multiply it by quantity
-        // Multiply unit price by quantity to get the total price for this BasketItem
-        ProductWithCategory productWithCategory = productRepository.getByIdWithCategory(productID);
-        if (productWithCategory != null)
-        {
-            return productWithCategory.product().getUnitPrice() * quantity;
-        } else
-        {
-            logger.debug("Unable to calculate total price");
-            return 0;
-        }
+        return result;
     }
 }
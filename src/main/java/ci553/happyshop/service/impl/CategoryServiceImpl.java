@@ -4,17 +4,40 @@ import ci553.happyshop.catalogue.Category;
 import ci553.happyshop.data.repository.CategoryRepository;
 import ci553.happyshop.data.repository.RepositoryFactory;
 import ci553.happyshop.service.CategoryService;
+import ci553.happyshop.service.ServiceFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Implements methods from <code>CategoryService</code>. Categories rarely change, so they are held in an
+ * in-memory registry with maps by id and by lower-case name. The registry is loaded in bulk on first use or by
+ * <code>refresh</code>, and dropped whenever a category is added, updated or deleted through this service
+ */
 public class CategoryServiceImpl implements CategoryService
 {
     // Get repo instances
     CategoryRepository categoryRepository = RepositoryFactory.getCategoryRepository();
     Logger logger = LogManager.getLogger();
 
+    private volatile Registry registry;      // Null until loaded, replaced as a whole
+
+
+    /**
+     * An immutable copy of every category
+     *
+     * @param all    every category, in database order
+     * @param byId   categories keyed by id
+     * @param byName categories keyed by lower-case name
+     */
+    private record Registry(List<Category> all, Map<Long, Category> byId, Map<String, Category> byName) {}
+
+
     /**
      * Gets the list of all categories
      *
@@ -23,6 +46,146 @@ public class CategoryServiceImpl implements CategoryService
     @Override
     public List<Category> getAll()
     {
-        return categoryRepository.getAll();
+        return getRegistry().all();
+    }
+
+
+    /**
+     * Gets a category by its primary key
+     *
+     * @param id the primary key of a <code>Category</code>
+     * @return the <code>Category</code>, or null if it does not exist
+     */
+    @Override
+    public @Nullable Category getById(long id)
+    {
+        return getRegistry().byId().get(id);
+    }
+
+
+    /**
+     * Gets a category by its name, ignoring case and surrounding whitespace
+     *
+     * @param name the name of a <code>Category</code>
+     * @return the <code>Category</code>, or null if it does not exist
+     */
+    @Override
+    public @Nullable Category getByName(@NotNull String name)
+    {
+        return getRegistry().byName().get(normalise(name));
+    }
+
+
+    /**
+     * Adds a new category
+     *
+     * @param category the <code>Category</code> to add
+     * @return the added <code>Category</code> with its generated id
+     */
+    @Override
+    public @NotNull Category addCategory(@NotNull Category category)
+    {
+        Category inserted = categoryRepository.insert(category);
+        invalidate();
+        return inserted;
+    }
+
+
+    /**
+     * Updates the name and description of an existing category
+     *
+     * @param category the <code>Category</code> with its new details
+     */
+    @Override
+    public void updateCategory(@NotNull Category category)
+    {
+        categoryRepository.update(category);
+        invalidate();
+    }
+
+
+    /**
+     * Deletes a category
+     *
+     * @param id the primary key of the <code>Category</code> to delete
+     */
+    @Override
+    public void deleteCategory(long id)
+    {
+        categoryRepository.delete(id);
+        invalidate();
+    }
+
+
+    /**
+     * Reloads every category from the database
+     */
+    @Override
+    public void refresh()
+    {
+        registry = load();
+    }
+
+
+    /**
+     * Drops the registry so the next read reloads it. Cached products carry their category, so the
+     * catalogue cache is invalidated as well
+     */
+    private void invalidate()
+    {
+        registry = null;
+        ServiceFactory.getCatalogueCache().invalidate();
+        logger.debug("Category registry invalidated");
+    }
+
+
+    /**
+     * Helper method to get the registry, loading it if it has been invalidated
+     */
+    private @NotNull Registry getRegistry()
+    {
+        Registry current = registry;
+        if (current == null)
+        {
+            synchronized (this)
+            {
+                current = registry;
+                if (current == null)
+                {
+                    current = load();
+                    registry = current;
+                }
+            }
+        }
+        return current;
+    }
+
+
+    /**
+     * Helper method to read every category with one query and build the lookup maps
+     */
+    private @NotNull Registry load()
+    {
+        List<Category> all = List.copyOf(categoryRepository.getAll());
+        Map<Long, Category> byId = new HashMap<>();
+        Map<String, Category> byName = new HashMap<>();
+
+        for (Category category : all)
+        {
+            byId.put(category.getId(), category);
+            byName.put(normalise(category.getName()), category);
+        }
+
+        logger.debug("Loaded {} categories into the registry", all.size());
+        return new Registry(all, Map.copyOf(byId), Map.copyOf(byName));
+    }
+
+
+    /**
+     * Helper method to turn a category name into its registry key
+     */
+    private static @NotNull String normalise(@NotNull String name)
+    {
+        return name.trim().toLowerCase();
     }
 }
@@ -3,39 +3,41 @@ package ci553.happyshop.service.impl;
 import ci553.happyshop.catalogue.Category;
 import ci553.happyshop.catalogue.DTO.ProductWithCategory;
 import ci553.happyshop.catalogue.Product;
-import ci553.happyshop.data.repository.CategoryRepository;
 import ci553.happyshop.data.repository.ProductRepository;
 import ci553.happyshop.data.repository.RepositoryFactory;
+import ci553.happyshop.service.CatalogueCache;
+import ci553.happyshop.service.CategoryBitmapIndex;
+import ci553.happyshop.service.CategoryService;
+import ci553.happyshop.service.ProductSearchIndex;
 import ci553.happyshop.service.ProductService;
+import ci553.happyshop.service.ServiceFactory;
+import ci553.happyshop.service.event.ChangeEvent.ProductDeleted;
+import ci553.happyshop.service.event.ChangeEvent.ProductUpdated;
+import ci553.happyshop.service.event.ChangeEventBus;
 import javafx.beans.property.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.BitSet;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class ProductServiceImpl implements ProductService
 {
     // Get repository instances
     ProductRepository productRepository = RepositoryFactory.getProductRepository();
-    CategoryRepository categoryRepository = RepositoryFactory.getCategoryRepository();
-    IntegerProperty changeProperty = new SimpleIntegerProperty(0); // Used for updating lists on changes
+    private final CategoryService categoryService = ServiceFactory.getCategoryService();
+    private final CatalogueCache catalogueCache = ServiceFactory.getCatalogueCache();
+    private final ProductSearchIndex searchIndex = ServiceFactory.getProductSearchIndex();
+    private final CategoryBitmapIndex categoryIndex = ServiceFactory.getCategoryBitmapIndex();
+    private final ChangeEventBus changeEventBus = ServiceFactory.getChangeEventBus();   // Used for updating lists on changes
     private final StringProperty errorProperty = new SimpleStringProperty("");  // Used for returning input validation conditions
 
     Logger logger = LogManager.getLogger();
 
 
-    /**
-     * Updates the <code>changeProperty</code>. Use whenever the underlying data has changed to trigger
-     * all observers waiting to update internal lists
-     */
-    private void notifyChanged()
-    {
-        changeProperty.set(changeProperty.getValue() + 1);
-        logger.debug("notifyChanged() invoked");
-    }
-
-
     /**
      * Updates the <code>errorProperty</code> to the specified validation error.
      * This is used whenever there is an error in updating product data entered by users.
@@ -51,14 +53,40 @@ public class ProductServiceImpl implements ProductService
 
 
     /**
-     * Exposes an observable form of the change counter
+     * Exposes the bus on which product changes are published
      *
-     * @return an immutable form of the counter
+     * @return the shared <code>ChangeEventBus</code>
      */
     @Override
-    public ReadOnlyIntegerProperty productsChanged()
+    public ChangeEventBus changeEvents()
     {
-        return changeProperty;
+        return changeEventBus;
+    }
+
+
+    /**
+     * Searches product ids and names using the <code>ProductSearchIndex</code>, without a database call
+     *
+     * @param query the search text, matched against the start of product ids and anywhere in product names
+     * @return the matching <code>ProductSearchIndex.Result</code>
+     */
+    @Override
+    public ProductSearchIndex.Result search(String query)
+    {
+        return searchIndex.search(query);
+    }
+
+
+    /**
+     * Gets the products in a category from the <code>CategoryBitmapIndex</code>, without a database call
+     *
+     * @param categoryID the primary key of a <code>Category</code>
+     * @return a <code>BitSet</code> with the bit of each product id in the category set
+     */
+    @Override
+    public BitSet getProductsInCategory(long categoryID)
+    {
+        return categoryIndex.getProducts(categoryID);
     }
 
 
@@ -93,11 +121,11 @@ public class ProductServiceImpl implements ProductService
     @Override
     public int getStockQuantity(long productID)
     {
-        Product product = productRepository.getById(productID);
+        ProductWithCategory product = catalogueCache.getById(productID);
 
         if (product != null)
         {
-            return product.getStockQuantity();
+            return product.product().getStockQuantity();
         } else
         {
             logger.debug("Unable to find product with id: {}", productID);
@@ -114,7 +142,46 @@ public class ProductServiceImpl implements ProductService
     @Override
     public List<ProductWithCategory> getAllWithCategories()
     {
-        return productRepository.getAllWithCategories();
+        return catalogueCache.getAll();
+    }
+
+
+    /**
+     * Gets a single Product with its connected Category
+     *
+     * @param productID the primary key of a <code>Product</code> object
+     * @return the <code>ProductWithCategory</code>, or null if the product does not exist
+     */
+    @Override
+    public @Nullable ProductWithCategory getWithCategory(long productID)
+    {
+        return catalogueCache.getById(productID);
+    }
+
+
+    /**
+     * Streams Products with their connected Categories one page at a time, in id order. The pages are views
+     * of one catalogue snapshot from the <code>catalogueCache</code>, so a reload does not walk the table.
+     * The consumer is always called at least once, with an empty page if there are no products
+     *
+     * @param categoryID   the primary key of a <code>Category</code> to filter by, or null for all products
+     * @param pageSize     the maximum number of products per page
+     * @param pageConsumer called with each page of <code>ProductWithCategory</code> objects
+     */
+    @Override
+    public void forEachPageWithCategories(@Nullable Long categoryID, int pageSize,
+            @NotNull Consumer<List<ProductWithCategory>> pageConsumer)
+    {
+        List<ProductWithCategory> products = categoryID == null
+                ? catalogueCache.getAll()
+                : catalogueCache.getByCategory(categoryID);
+
+        int from = 0;
+        do
+        {
+            pageConsumer.accept(products.subList(from, Math.min(from + pageSize, products.size())));
+            from += pageSize;
+        } while (from < products.size());
     }
 
 
@@ -129,9 +196,12 @@ public class ProductServiceImpl implements ProductService
         logger.info("Deleting product {}", product.getId());
 
         productRepository.delete(product.getId());
+        catalogueCache.remove(product.getId());
+        searchIndex.remove(product.getId());
+        categoryIndex.remove(product.getId());
 
         // Trigger observers
-        notifyChanged();
+        changeEventBus.publish(new ProductDeleted(product.getId()));
     }
 
 
@@ -152,7 +222,7 @@ public class ProductServiceImpl implements ProductService
             String newCategory)
     {
         // Check that the product exists
-        if (productRepository.getById(id) == null)
+        if (catalogueCache.getById(id) == null)
         {
             notifyError("Cannot update product- no product exists with id: " + id);
             return;
@@ -208,8 +278,8 @@ public class ProductServiceImpl implements ProductService
             return;
         }
 
-        // Check that the requested category exists
-        Category category = categoryRepository.getByName(newCategory);
+        // Check that the requested category exists, resolved from the category registry
+        Category category = newCategory == null ? null : categoryService.getByName(newCategory);
         if (category == null)
         {
             notifyError("Cannot update product- cannot find category: " + newCategory);
@@ -221,8 +291,11 @@ public class ProductServiceImpl implements ProductService
         // Pass new data to the repository
         Product newProduct = new Product(id, newName, newImageName, doubleNewPrice, intStockQuantity, category.getId());
         productRepository.update(newProduct);
+        catalogueCache.put(new ProductWithCategory(newProduct, category));
+        searchIndex.put(id, newName);
+        categoryIndex.put(id, category.getId());      // Moves the product if its category changed
 
-        notifyChanged();    // Indicate to observers that the product list has updated
+        changeEventBus.publish(new ProductUpdated(id));    // Indicate to observers that this product has updated
     }
 
 
@@ -1,6 +1,7 @@
 package ci553.happyshop.service.impl;
 
 import ci553.happyshop.catalogue.User;
+import ci553.happyshop.data.DatabaseException;
 import ci553.happyshop.data.repository.RepositoryFactory;
 import ci553.happyshop.data.repository.UserRepository;
 import ci553.happyshop.service.UserService;
@@ -137,16 +138,16 @@ public class UserServiceImpl implements UserService
             return null;
         } else
         {
-            logger.info("Created new account with username");
-            userRepository.insert(new User(0, username, password, userType)); // ID is generated automatically
-            User newUser = userRepository.getUser(username, password);
-
-            if (newUser != null)
+            try
             {
+                // ID is generated automatically and returned with the new user, no need to query it again
+                User newUser = userRepository.insert(new User(0, username, password, userType));
+                logger.info("Created new account with id: {}", newUser.id());
                 return newUser;
-            } else
+            } catch (DatabaseException e)
             {
-                logger.info("Failed to retrieve new user");
+                logger.error("Failed to create new account", e);
+                notifyError("Failed to create account, please try again");
                 return null;
             }
         }
@@ -0,0 +1,397 @@
+package ci553.happyshop.systemSetup;
+
+import ci553.happyshop.data.DatabaseConnection;
+import ci553.happyshop.data.DatabaseException;
+import ci553.happyshop.data.repository.RepositoryFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings the database schema up to date by applying versioned migration scripts in order. Unlike
+ * <code>SetDatabase</code>, existing data is kept, so schema changes such as new indexes can be rolled out
+ * to a live <code>happyShopDB</code>.
+ * <p>
+ * Scripts live in <code>/db/migration</code> and are named <code>V&lt;version&gt;__&lt;description&gt;.sql</code>.
+ * Every applied script is recorded in <code>SchemaVersion</code> with a checksum, so running the migrations
+ * again is a no-op, and editing a script after it has been applied is reported as an error.
+ * A database created before migrations existed is baselined at version 1 instead of re-running the schema.
+ */
+public class MigrationRunner
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String MIGRATION_FOLDER = "/db/migration/";
+
+    // Migration scripts in the order they are applied. Append new scripts, never edit or reorder applied ones
+    private static final String[] MIGRATIONS = {
+            "V1__baseline_schema.sql",
+            "V2__product_category_index.sql"
+    };
+
+    private static final String CREATE_VERSION_TABLE = """
+            CREATE TABLE SchemaVersion (
+                version INT PRIMARY KEY,
+                description VARCHAR(100) NOT NULL,
+                checksum VARCHAR(64) NOT NULL,
+                appliedAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+            """;
+
+    private static final String OBJECT_EXISTS_STATE = "X0Y32";  // Derby SQLState for an existing table or index
+
+    private final DatabaseConnection dbConnection;
+
+
+    /**
+     * A migration script loaded from the classpath
+     *
+     * @param version     the version number taken from the file name
+     * @param description the description taken from the file name
+     * @param script      the SQL text of the script
+     * @param checksum    the SHA-256 checksum of the script
+     */
+    public record Migration(int version, String description, String script, String checksum) {}
+
+
+    /**
+     * Constructs a MigrationRunner for the application database, at the URL the <code>RepositoryFactory</code>
+     * connects to. The database is created if it does not exist yet
+     */
+    public MigrationRunner()
+    {
+        this(new DatabaseConnection(RepositoryFactory.getDatabaseUrl() + ";create=true"));
+    }
+
+
+    /**
+     * Constructs a MigrationRunner for a specific database
+     *
+     * @param dbConnection the <code>DatabaseConnection</code> of the database to migrate
+     */
+    public MigrationRunner(@NotNull DatabaseConnection dbConnection)
+    {
+        this.dbConnection = dbConnection;
+    }
+
+
+    /**
+     * Applies pending migrations. Pass <code>--dry-run</code> to only list them
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args)
+    {
+        boolean dryRun = args.length > 0 && "--dry-run".equals(args[0]);
+        new MigrationRunner().migrate(dryRun);
+    }
+
+
+    /**
+     * Applies every migration that has not been applied yet, each in its own transaction.
+     * In dry-run mode nothing is changed and the pending migrations are only logged
+     *
+     * @param dryRun true to report pending migrations without applying them
+     * @return the migrations that were applied, or would be applied in dry-run mode
+     */
+    public List<Migration> migrate(boolean dryRun)
+    {
+        List<Migration> migrations = loadMigrations();
+        List<Migration> pending = new ArrayList<>();
+
+        try (Connection connection = dbConnection.getConnection())
+        {
+            Map<Integer, String> applied = getAppliedVersions(connection, migrations, dryRun);
+
+            for (Migration migration : migrations)
+            {
+                String checksum = applied.get(migration.version());
+                if (checksum == null)
+                {
+                    pending.add(migration);
+                } else if (!checksum.equals(migration.checksum()))
+                {
+                    throw new DatabaseException("Migration V" + migration.version() + " has changed since it was applied");
+                }
+            }
+
+            if (pending.isEmpty())
+            {
+                logger.info("Database schema is up to date");
+                return pending;
+            }
+
+            for (Migration migration : pending)
+            {
+                if (dryRun)
+                {
+                    logger.info("[dry run] Would apply V{} {}:\n{}", migration.version(), migration.description(), migration.script());
+                } else
+                {
+                    apply(connection, migration);
+                }
+            }
+
+            return pending;
+        } catch (SQLException e)
+        {
+            throw new DatabaseException("Failed to migrate database", e);
+        }
+    }
+
+
+    /**
+     * Gets the versions recorded in <code>SchemaVersion</code>, creating the table if it does not exist.
+     * If the application tables already exist without a version table the database is baselined at version 1
+     *
+     * @param connection the connection to the database
+     * @param migrations the available migrations
+     * @param dryRun     true to leave the database unchanged
+     * @return a map of applied version numbers to their checksums
+     * @throws SQLException if the version table could not be read or created
+     */
+    private Map<Integer, String> getAppliedVersions(@NotNull Connection connection, @NotNull List<Migration> migrations,
+            boolean dryRun) throws SQLException
+    {
+        Map<Integer, String> applied = new HashMap<>();
+
+        if (tableExists(connection, "SchemaVersion"))
+        {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT version, checksum FROM SchemaVersion"))
+            {
+                while (resultSet.next())
+                {
+                    applied.put(resultSet.getInt(1), resultSet.getString(2));
+                }
+            }
+            return applied;
+        }
+
+        // Databases created by SetDatabase before migrations existed already have the baseline schema
+        boolean baseline = tableExists(connection, "ProductTable");
+        Migration first = migrations.get(0);
+
+        if (dryRun)
+        {
+            logger.info("[dry run] Would create SchemaVersion{}", baseline ? " and baseline at V1" : "");
+            if (baseline)
+            {
+                applied.put(first.version(), first.checksum());
+            }
+            return applied;
+        }
+
+        try (Statement statement = connection.createStatement())
+        {
+            statement.executeUpdate(CREATE_VERSION_TABLE);
+        }
+
+        if (baseline)
+        {
+            recordVersion(connection, first);
+            applied.put(first.version(), first.checksum());
+            logger.info("Baselined existing database at V{}", first.version());
+        }
+
+        return applied;
+    }
+
+
+    /**
+     * Runs the statements of a migration and records it, all in one transaction
+     *
+     * @param connection the connection to the database
+     * @param migration  the migration to apply
+     * @throws SQLException if the migration failed, after rolling it back
+     */
+    private void apply(@NotNull Connection connection, @NotNull Migration migration) throws SQLException
+    {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement())
+        {
+            for (String sql : splitStatements(migration.script()))
+            {
+                try
+                {
+                    statement.executeUpdate(sql);
+                } catch (SQLException e)
+                {
+                    // An index added by hand or by an older SetDatabase is already in the state the migration wants
+                    if (!OBJECT_EXISTS_STATE.equals(e.getSQLState()))
+                    {
+                        throw e;
+                    }
+                    logger.warn("V{}: object already exists, skipping: {}", migration.version(), e.getMessage());
+                }
+            }
+
+            recordVersion(connection, migration);
+            connection.commit();
+            logger.info("Applied migration V{} {}", migration.version(), migration.description());
+        } catch (SQLException e)
+        {
+            connection.rollback();
+            throw e;
+        } finally
+        {
+            connection.setAutoCommit(true);
+        }
+    }
+
+
+    /**
+     * Helper method to insert a row into <code>SchemaVersion</code>
+     *
+     * @param connection the connection to the database
+     * @param migration  the applied migration
+     * @throws SQLException if the row could not be inserted
+     */
+    private void recordVersion(@NotNull Connection connection, @NotNull Migration migration) throws SQLException
+    {
+        String query = "INSERT INTO SchemaVersion (version, description, checksum) VALUES (?, ?, ?)";
+
+        try (PreparedStatement statement = connection.prepareStatement(query))
+        {
+            statement.setInt(1, migration.version());
+            statement.setString(2, migration.description());
+            statement.setString(3, migration.checksum());
+            statement.executeUpdate();
+        }
+    }
+
+
+    /**
+     * Loads the migration scripts listed in <code>MIGRATIONS</code> from the classpath
+     *
+     * @return the migrations, in order
+     */
+    static List<Migration> loadMigrations()
+    {
+        List<Migration> migrations = new ArrayList<>();
+        int lastVersion = 0;
+
+        for (String fileName : MIGRATIONS)
+        {
+            // File names are V<version>__<description>.sql
+            int separator = fileName.indexOf("__");
+            int version = Integer.parseInt(fileName.substring(1, separator));
+            String description = fileName.substring(separator + 2, fileName.length() - ".sql".length()).replace('_', ' ');
+
+            if (version <= lastVersion)
+            {
+                throw new DatabaseException("Migration " + fileName + " is out of order");
+            }
+            lastVersion = version;
+
+            try (InputStream stream = MigrationRunner.class.getResourceAsStream(MIGRATION_FOLDER + fileName))
+            {
+                if (stream == null)
+                {
+                    throw new DatabaseException("Migration script not found: " + fileName);
+                }
+
+                // Normalise line endings so the checksum is the same on every platform
+                String script = new String(stream.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+                migrations.add(new Migration(version, description, script, checksum(script)));
+            } catch (IOException e)
+            {
+                throw new DatabaseException("Failed to read migration script: " + fileName, e);
+            }
+        }
+
+        return migrations;
+    }
+
+
+    /**
+     * Helper method to split a script into statements on <code>;</code>, dropping <code>--</code> comment lines
+     *
+     * @param script the SQL text of a migration
+     * @return the statements without their terminating semicolons
+     */
+    static List<String> splitStatements(@NotNull String script)
+    {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+
+        for (String line : script.split("\n"))
+        {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--"))
+            {
+                continue;
+            }
+
+            current.append(line).append('\n');
+            if (trimmed.endsWith(";"))
+            {
+                String sql = current.toString().trim();
+                statements.add(sql.substring(0, sql.length() - 1));
+                current.setLength(0);
+            }
+        }
+
+        if (!current.toString().isBlank())
+        {
+            statements.add(current.toString().trim());     // Last statement without a semicolon
+        }
+
+        return statements;
+    }
+
+
+    /**
+     * Helper method to check whether a table exists in the database
+     *
+     * @param connection the connection to the database
+     * @param table      the table name
+     * @return true if the table exists
+     * @throws SQLException if the metadata could not be read
+     */
+    private static boolean tableExists(@NotNull Connection connection, @NotNull String table) throws SQLException
+    {
+        // Derby stores unquoted identifiers in upper case
+        try (ResultSet resultSet = connection.getMetaData().getTables(null, null, table.toUpperCase(), new String[]{"TABLE"}))
+        {
+            return resultSet.next();
+        }
+    }
+
+
+    /**
+     * Helper method to compute the SHA-256 checksum of a script
+     *
+     * @param script the SQL text
+     * @return the checksum as a hex string
+     */
+    private static @NotNull String checksum(@NotNull String script)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(script.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash)
+            {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
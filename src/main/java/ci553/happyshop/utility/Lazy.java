@@ -0,0 +1,71 @@
+package ci553.happyshop.utility;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe holder for a lazily created singleton, used by the factories. The instance is created by the
+ * first call to <code>get</code> using double-checked locking, so concurrent callers on different executor
+ * threads always receive the same instance and later reads take no lock
+ *
+ * @param <T> the type of the instance
+ */
+public final class Lazy<T>
+{
+    private final Supplier<? extends T> factory;
+    private volatile T instance;
+
+
+    /**
+     * Constructs a Lazy holder that creates its instance with the specified factory
+     *
+     * @param factory creates the instance on first use
+     */
+    public Lazy(@NotNull Supplier<? extends T> factory)
+    {
+        this.factory = factory;
+    }
+
+
+    /**
+     * Gets the instance, creating it on the first call
+     *
+     * @return the instance
+     */
+    public @NotNull T get()
+    {
+        T current = instance;
+        if (current == null)
+        {
+            synchronized (this)
+            {
+                // Another thread may have created it while this one was waiting
+                current = instance;
+                if (current == null)
+                {
+                    current = factory.get();
+                    instance = current;
+                }
+            }
+        }
+        return current;
+    }
+
+
+    /**
+     * Runs an action on the instance only if it has been created, e.g. to close it on shutdown
+     * without creating it first
+     *
+     * @param action the action to run
+     */
+    public void ifInitialized(@NotNull Consumer<? super T> action)
+    {
+        T current = instance;
+        if (current != null)
+        {
+            action.accept(current);
+        }
+    }
+}
@@ -5,8 +5,12 @@ import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Final utility class defining concurrency methods
@@ -15,6 +19,14 @@ public final class ExecutorHandler
 {
     private static final Logger logger = LogManager.getLogger();
 
+    public static final int DEFAULT_GROUP_CONCURRENCY = 2;         // Concurrent DB tasks per group, within the pool size, in no set order
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    // One virtual thread per task, shared by every task group
+    private static final ExecutorService virtualExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("virtual-", 0).factory());
+    private static final Map<String, TaskGroup> taskGroups = new ConcurrentHashMap<>();
+
 
     private ExecutorHandler()
     {
@@ -44,4 +56,82 @@ public final class ExecutorHandler
                 }
         );
     }
+
+
+    /**
+     * A single-thread ScheduledExecutorService for periodic background work, such as flushing cached
+     * changes to the database. Like <code>getExecutorService</code>, the thread is a daemon
+     *
+     * @param threadName the name of the thread to run scheduled tasks on
+     * @return a single-thread <code>ScheduledExecutorService</code>
+     */
+    @Contract("_ -> new")
+    public static @NotNull ScheduledExecutorService getScheduledExecutorService(@NotNull String threadName)
+    {
+        return Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Gets the task group with the specified name, creating it with <code>DEFAULT_GROUP_CONCURRENCY</code> if it does
+     * not exist yet. Groups run on the shared virtual-thread executor, so reopening a screen reuses its group
+     * instead of starting another thread
+     *
+     * @param groupName the name of the group, such as the name of a model
+     * @return the shared <code>TaskGroup</code>
+     */
+    public static @NotNull TaskGroup getTaskGroup(@NotNull String groupName)
+    {
+        return getTaskGroup(groupName, DEFAULT_GROUP_CONCURRENCY);
+    }
+
+
+    /**
+     * Gets the task group with the specified name, creating it if it does not exist yet
+     *
+     * @param groupName     the name of the group
+     * @param maxConcurrent the maximum number of tasks of the group that run at once, used if the group is created
+     * @return the shared <code>TaskGroup</code>
+     */
+    public static @NotNull TaskGroup getTaskGroup(@NotNull String groupName, int maxConcurrent)
+    {
+        return taskGroups.computeIfAbsent(groupName, name ->
+        {
+            logger.debug("Creating task group {} with concurrency {}", name, maxConcurrent);
+            return new TaskGroup(name, virtualExecutor, maxConcurrent);
+        });
+    }
+
+
+    /**
+     * Shuts every task group down, waits for their running tasks to finish, then stops the shared executor.
+     * Call when the application exits, before the connection pool is closed
+     */
+    public static void shutdown()
+    {
+        taskGroups.values().forEach(TaskGroup::shutdown);
+
+        for (TaskGroup group : taskGroups.values())
+        {
+            try
+            {
+                if (!group.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                {
+                    logger.warn("Task group {} did not finish in time", group.getName());
+                }
+                logger.info("{}", group);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        virtualExecutor.shutdown();
+    }
 }
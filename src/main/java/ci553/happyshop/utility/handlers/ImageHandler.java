@@ -47,6 +47,19 @@ public final class ImageHandler
      * @return an <code>Image</code>
      */
     public static @Nullable Image loadFromString(String stringUrl)
+    {
+        return loadFromString(stringUrl, false);
+    }
+
+
+    /**
+     * Loads an <code>Image</code> from its file location, optionally decoding it on a background thread.
+     * A background image can be shown straight away and appears once decoded
+     * @param stringUrl          the location of the image
+     * @param backgroundLoading  true to decode the image off the calling thread
+     * @return an <code>Image</code>
+     */
+    public static @Nullable Image loadFromString(String stringUrl, boolean backgroundLoading)
     {
 
         URL url = FileHandler.parseURL(stringUrl);
@@ -54,8 +67,7 @@ public final class ImageHandler
         {
             try
             {
-                return new Image(url.toExternalForm());
-
+                return new Image(url.toExternalForm(), backgroundLoading);
 
             } catch (Exception e)
             {
@@ -0,0 +1,80 @@
+package ci553.happyshop.utility.handlers;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks one at a time, in submission order, on another executor such as a <code>TaskGroup</code>.
+ * Each task is only handed to the executor once the one before it has finished, so a burst of basket clicks
+ * is written in the order it was made, while the tasks still count against the group's concurrency limit
+ */
+public class SerialExecutor implements Executor
+{
+    private final Executor executor;
+    private final Deque<Runnable> tasks = new ArrayDeque<>();     // Waiting for the active task, guarded by this
+    private Runnable active;                                      // Handed to the executor, guarded by this
+
+
+    /**
+     * Constructs a SerialExecutor
+     *
+     * @param executor the executor that runs each task
+     */
+    public SerialExecutor(@NotNull Executor executor)
+    {
+        this.executor = executor;
+    }
+
+
+    /**
+     * Queues a task to run after every task submitted before it
+     *
+     * @param task the task to run
+     * @throws RejectedExecutionException if the underlying executor has been shut down
+     */
+    @Override
+    public synchronized void execute(@NotNull Runnable task)
+    {
+        tasks.add(() ->
+        {
+            try
+            {
+                task.run();
+            } finally
+            {
+                scheduleNext();
+            }
+        });
+
+        if (active == null)
+        {
+            scheduleNext();
+        }
+    }
+
+
+    /**
+     * Helper method to hand the next waiting task to the executor
+     */
+    private synchronized void scheduleNext()
+    {
+        active = tasks.poll();
+        if (active != null)
+        {
+            try
+            {
+                executor.execute(active);
+            } catch (RejectedExecutionException e)
+            {
+                // Nothing queued behind it can run either
+                tasks.clear();
+                active = null;
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package ci553.happyshop.utility.handlers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named group of background tasks that runs on the shared virtual-thread executor from <code>ExecutorHandler</code>.
+ * Each task gets its own virtual thread, and a fair semaphore limits how many tasks of the group run at once, so
+ * one screen cannot take every pooled database connection. Waiting for a permit blocks only the virtual thread.
+ * Tasks race for permits on their own threads, so they can start in any order; wrap the group in a
+ * <code>SerialExecutor</code> where order matters.
+ * <p>
+ * The group records its queue depth and how long tasks wait and run, and can be shut down on its own
+ */
+public class TaskGroup extends AbstractExecutorService
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    private final String name;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    private final AtomicInteger queued = new AtomicInteger(0);     // Submitted, waiting for a permit
+    private final AtomicInteger running = new AtomicInteger(0);
+    private final AtomicLong completed = new AtomicLong(0);
+    private final AtomicLong totalWaitNanos = new AtomicLong(0);
+    private final AtomicLong totalRunNanos = new AtomicLong(0);
+    private final AtomicLong maxLatencyNanos = new AtomicLong(0);
+
+    private final AtomicInteger unfinished = new AtomicInteger(0);  // Queued or running
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile boolean shutdown = false;
+    private volatile boolean dropQueued = false;
+
+
+    /**
+     * Constructs a TaskGroup. Use <code>ExecutorHandler.getTaskGroup</code> rather than calling this directly
+     *
+     * @param name          the name of the group, used for thread names and logging
+     * @param executor      the executor that starts each task
+     * @param maxConcurrent the maximum number of tasks of this group that run at once
+     */
+    TaskGroup(@NotNull String name, @NotNull ExecutorService executor, int maxConcurrent)
+    {
+        if (maxConcurrent < 1)
+        {
+            throw new IllegalArgumentException("Task group concurrency must be at least 1");
+        }
+
+        this.name = name;
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrent, true);      // Fair, so no waiting task is starved
+    }
+
+
+    /**
+     * Runs a task on its own virtual thread once the group has a free permit
+     *
+     * @param task the task to run
+     * @throws RejectedExecutionException if the group has been shut down
+     */
+    @Override
+    public void execute(@NotNull Runnable task)
+    {
+        if (shutdown)
+        {
+            throw new RejectedExecutionException("Task group " + name + " has been shut down");
+        }
+
+        long submittedAt = System.nanoTime();
+        queued.incrementAndGet();
+        unfinished.incrementAndGet();
+
+        executor.execute(() ->
+        {
+            String threadName = Thread.currentThread().getName();
+            Thread.currentThread().setName(name + "-" + threadName);
+            try
+            {
+                permits.acquire();
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                queued.decrementAndGet();
+                finish();
+                return;
+            }
+
+            queued.decrementAndGet();
+            long startedAt = System.nanoTime();
+            try
+            {
+                if (!dropQueued)
+                {
+                    running.incrementAndGet();
+                    try
+                    {
+                        task.run();
+                    } finally
+                    {
+                        running.decrementAndGet();
+                    }
+                }
+            } catch (RuntimeException e)
+            {
+                logger.error("Task in group {} failed", name, e);
+            } finally
+            {
+                permits.release();
+                record(startedAt - submittedAt, System.nanoTime() - startedAt);
+                finish();
+            }
+        });
+    }
+
+
+    /**
+     * Stops accepting tasks. Tasks that were already submitted still run
+     */
+    @Override
+    public void shutdown()
+    {
+        shutdown = true;
+        if (unfinished.get() == 0)
+        {
+            terminated.countDown();
+        }
+    }
+
+
+    /**
+     * Stops accepting tasks and skips tasks that have not started. Running tasks are not interrupted,
+     * because interrupting a JDBC call can close the Derby connection
+     *
+     * @return an empty list, as tasks are already handed to their virtual threads
+     */
+    @Override
+    public @NotNull List<Runnable> shutdownNow()
+    {
+        dropQueued = true;
+        shutdown();
+        return new ArrayList<>();
+    }
+
+
+    @Override
+    public boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+
+    @Override
+    public boolean isTerminated()
+    {
+        return terminated.getCount() == 0;
+    }
+
+
+    @Override
+    public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException
+    {
+        return terminated.await(timeout, unit);
+    }
+
+
+    /**
+     * Gets the name of the group
+     *
+     * @return the group name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * Gets the number of tasks waiting for a permit
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth()
+    {
+        return queued.get();
+    }
+
+
+    /**
+     * Gets the number of tasks running now
+     *
+     * @return the active task count
+     */
+    public int getActiveCount()
+    {
+        return running.get();
+    }
+
+
+    /**
+     * Gets the number of tasks that have finished
+     *
+     * @return the completed task count
+     */
+    public long getCompletedCount()
+    {
+        return completed.get();
+    }
+
+
+    /**
+     * Gets the average time tasks waited for a permit
+     *
+     * @return the average wait in milliseconds, or 0 if no task has finished
+     */
+    public double getAverageWaitMillis()
+    {
+        return average(totalWaitNanos);
+    }
+
+
+    /**
+     * Gets the average time tasks took to run
+     *
+     * @return the average run time in milliseconds, or 0 if no task has finished
+     */
+    public double getAverageRunMillis()
+    {
+        return average(totalRunNanos);
+    }
+
+
+    /**
+     * Gets the longest time from submission to completion of any task
+     *
+     * @return the maximum latency in milliseconds
+     */
+    public double getMaxLatencyMillis()
+    {
+        return maxLatencyNanos.get() / 1_000_000.0;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return String.format("TaskGroup[%s queued=%d active=%d completed=%d avgWait=%.1fms avgRun=%.1fms maxLatency=%.1fms]",
+                name, getQueueDepth(), getActiveCount(), getCompletedCount(), getAverageWaitMillis(),
+                getAverageRunMillis(), getMaxLatencyMillis());
+    }
+
+
+    /**
+     * Helper method to add the timings of a finished task
+     */
+    private void record(long waitNanos, long runNanos)
+    {
+        totalWaitNanos.addAndGet(waitNanos);
+        totalRunNanos.addAndGet(runNanos);
+        maxLatencyNanos.accumulateAndGet(waitNanos + runNanos, Math::max);
+        completed.incrementAndGet();
+    }
+
+
+    /**
+     * Helper method to count a task as finished and signal termination after the last one
+     */
+    private void finish()
+    {
+        if (unfinished.decrementAndGet() == 0 && shutdown)
+        {
+            terminated.countDown();
+        }
+    }
+
+
+    /**
+     * Helper method to convert a nanosecond total to an average in milliseconds
+     */
+    private double average(@NotNull AtomicLong totalNanos)
+    {
+        long count = completed.get();
+        return count == 0 ? 0 : totalNanos.get() / (count * 1_000_000.0);
+    }
+}
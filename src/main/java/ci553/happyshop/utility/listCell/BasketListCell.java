@@ -111,11 +111,12 @@ public class BasketListCell extends ListCell<BasketItemWithDetails>
             // Set button actions
             btnRemove.setOnAction(x -> callback.onRemoveItem(product));
 
-            // Hide the "remove" button if there are none in the basket
-            btnRemove.setDisable(callback.getBasketQuantity(product) == 0);
+            // Hide the "remove" button if there are none in the basket. The line carries its own quantity
+            // and stock, so no service call is made on the JavaFX thread
+            btnRemove.setDisable(qty == 0);
 
             // Hide the "add" button if the max quantity has been reached
-            btnAdd.setDisable(callback.getBasketQuantity(product) >= callback.getStockQuantity(product));
+            btnAdd.setDisable(qty >= product.getStockQuantity());
         }
     }
 
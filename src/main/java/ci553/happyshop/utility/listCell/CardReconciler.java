@@ -0,0 +1,224 @@
+package ci553.happyshop.utility.listCell;
+
+import javafx.collections.ListChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps one live card per item key, such as a product id, so a change to one product updates its card in place
+ * instead of rebuilding every card. Changes from the source list are applied with <code>reconcile</code>: added and
+ * updated items refresh the live card for their key through the card updater, removed items are left for their
+ * cell to <code>release</code> and permutations only move cards. Released cards are kept in a bounded pool and
+ * reused for the next new key, so FXML is only loaded when the pool is empty.
+ * <p>
+ * Used on the JavaFX thread by <code>VirtualizedCardGrid</code>
+ *
+ * @param <T> the type of the items
+ * @param <C> the type of the cards
+ */
+public class CardReconciler<T, C>
+{
+    private final Supplier<C> cardFactory;
+    private final BiConsumer<C, T> cardUpdater;
+    private final Function<T, ?> keyOf;
+    private final int maxPoolSize;
+
+    private final Map<Object, C> liveCards = new HashMap<>();         // Key -> card currently showing it
+    private final Map<Object, T> liveItems = new HashMap<>();         // Key -> item the card was last updated with
+    private final Deque<C> pool = new ArrayDeque<>();                 // Detached cards ready for reuse
+    private int createdCount = 0;
+
+
+    /**
+     * Constructs a new CardReconciler
+     *
+     * @param cardFactory creates an empty card when the pool is empty
+     * @param cardUpdater updates a card with an item
+     * @param keyOf       gets the key of an item
+     * @param maxPoolSize the most detached cards to keep for reuse
+     */
+    public CardReconciler(@NotNull Supplier<C> cardFactory, @NotNull BiConsumer<C, T> cardUpdater,
+                          @NotNull Function<T, ?> keyOf, int maxPoolSize)
+    {
+        if (maxPoolSize < 0)
+        {
+            throw new IllegalArgumentException("Pool size cannot be negative: " + maxPoolSize);
+        }
+
+        this.cardFactory = cardFactory;
+        this.cardUpdater = cardUpdater;
+        this.keyOf = keyOf;
+        this.maxPoolSize = maxPoolSize;
+    }
+
+
+    /**
+     * Gets the card for an item. The live card for the item's key is returned as it is if it already shows this
+     * item, or updated in place if the item has been replaced. Otherwise a pooled or new card is updated and
+     * becomes the live card for the key
+     *
+     * @param item the item to show
+     * @return the card showing the item
+     */
+    public @NotNull C acquire(@NotNull T item)
+    {
+        Object key = keyOf.apply(item);
+        C card = liveCards.get(key);
+        if (card != null)
+        {
+            if (liveItems.get(key) != item)
+            {
+                update(key, card, item);
+            }
+            return card;
+        }
+
+        card = pool.poll();
+        if (card == null)
+        {
+            card = cardFactory.get();
+            createdCount++;
+        }
+        liveCards.put(key, card);
+        update(key, card, item);
+        return card;
+    }
+
+
+    /**
+     * Detaches the card for an item's key, returning it to the pool if there is room
+     *
+     * @param item an item with the key to release
+     */
+    public void release(@NotNull T item)
+    {
+        Object key = keyOf.apply(item);
+        C card = liveCards.remove(key);
+        liveItems.remove(key);
+        if (card != null && pool.size() < maxPoolSize)
+        {
+            pool.push(card);
+        }
+    }
+
+
+    /**
+     * Gets the live card for an item's key, without creating one
+     *
+     * @param item an item with the key to look up
+     * @return the card, or null if no card is showing the key
+     */
+    public @Nullable C getCard(@NotNull T item)
+    {
+        return liveCards.get(keyOf.apply(item));
+    }
+
+
+    /**
+     * Runs the card updater again on the live card for a key, with the item it already shows, e.g. when state the
+     * card reads from outside the item has changed
+     *
+     * @param key the key of the card to redraw
+     * @return true if a live card was redrawn, false if no card is showing the key
+     */
+    public boolean refresh(@NotNull Object key)
+    {
+        C card = liveCards.get(key);
+        if (card == null)
+        {
+            return false;
+        }
+
+        update(key, card, liveItems.get(key));
+        return true;
+    }
+
+
+    /**
+     * Applies a change from the source list to the live cards. Added and updated items with a live card are
+     * updated in place; cards for new keys are created when a cell first acquires them
+     *
+     * @param change the change, read from the start
+     * @return the lowest source index affected by the change, or -1 if nothing changed
+     */
+    public int reconcile(@NotNull ListChangeListener.Change<? extends T> change)
+    {
+        int firstChanged = -1;
+        while (change.next())
+        {
+            firstChanged = firstChanged < 0 ? change.getFrom() : Math.min(firstChanged, change.getFrom());
+
+            if (change.wasPermutated())
+            {
+                continue;       // Cards follow their keys, only the order has changed
+            }
+
+            List<? extends T> changed = change.wasUpdated()
+                    ? change.getList().subList(change.getFrom(), change.getTo())
+                    : change.getAddedSubList();
+            for (T item : changed)
+            {
+                Object key = keyOf.apply(item);
+                C card = liveCards.get(key);
+                if (card != null)
+                {
+                    update(key, card, item);
+                }
+            }
+        }
+        change.reset();
+        return firstChanged;
+    }
+
+
+    /**
+     * Gets the number of cards showing an item
+     *
+     * @return the live card count
+     */
+    public int getLiveCount()
+    {
+        return liveCards.size();
+    }
+
+
+    /**
+     * Gets the number of detached cards waiting to be reused
+     *
+     * @return the pooled card count
+     */
+    public int getPooledCount()
+    {
+        return pool.size();
+    }
+
+
+    /**
+     * Gets the number of cards created by the card factory
+     *
+     * @return the created card count
+     */
+    public int getCreatedCount()
+    {
+        return createdCount;
+    }
+
+
+    /**
+     * Helper method to update a card and remember which item it shows
+     */
+    private void update(@NotNull Object key, @NotNull C card, @NotNull T item)
+    {
+        cardUpdater.accept(card, item);
+        liveItems.put(key, item);
+    }
+}
@@ -26,6 +26,16 @@ public class ProductCardPane extends CardPane
     private Button btnAdd, btnRemove;
 
 
+    /**
+     * Constructs an empty <code>ProductCardPane</code>, to be filled in later with <code>updateProduct</code>.
+     * Used by grids that reuse cards for different products
+     */
+    public ProductCardPane()
+    {
+        super("/fxml/ProductTileCell.fxml");
+    }
+
+
     /**
      * Constructs a new <code>ProductCardPane</code> from a specified <code>Product</code> and a <code>callback</code>
      * Loads FXML in the parent class and initializes with product data.
@@ -61,29 +71,20 @@ public class ProductCardPane extends CardPane
         int stockRemaining = product.getStockQuantity();
         StockDisplayHandler.updateStockLabel(lbStock, stockRemaining);
 
+        // Read the basket quantity once, the card is updated again when the basket changes
+        int basketQuantity = callback.getBasketQuantity(product);
+        lbBasketQty.setText(String.valueOf(basketQuantity));
 
-        lbBasketQty.setText(String.valueOf(callback.getBasketQuantity(product)));
-
-        // Add button action
-        btnAdd.setOnAction(x ->
-        {
-            // Add the item to the basket & update quantity
-            callback.onAddItem(product);
-            lbBasketQty.setText(String.valueOf(callback.getBasketQuantity(product)));
-        });
+        // Add button action. The card is refreshed when the basket change is published
+        btnAdd.setOnAction(x -> callback.onAddItem(product));
 
         // Remove button action
-        btnRemove.setOnAction(x ->
-        {
-            // Remove the item from the basket & update quantity
-            callback.onRemoveItem(product);
-            lbBasketQty.setText(String.valueOf(callback.getBasketQuantity(product)));
-        });
+        btnRemove.setOnAction(x -> callback.onRemoveItem(product));
 
         // Hide the "remove" button if there are none in the basket
-        btnRemove.setDisable(callback.getBasketQuantity(product) == 0);
+        btnRemove.setDisable(basketQuantity == 0);
 
         // Hide the "add" button if the max quantity has been reached
-        btnAdd.setDisable(callback.getBasketQuantity(product) >= callback.getStockQuantity(product));
+        btnAdd.setDisable(basketQuantity >= stockRemaining);
     }
 }
@@ -0,0 +1,420 @@
+package ci553.happyshop.utility.listCell;
+
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.scene.Node;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.HBox;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A grid of cards that only creates cards for the rows on screen, replacing a TilePane that held one card per product.
+ * The grid is a ListView whose items are rows of up to <code>columns</code> source items, so the ListView's own
+ * virtualisation creates cells for the visible rows only and recycles them on scroll. Row cells take their cards from
+ * a <code>CardReconciler</code>, which keeps one live card per key and a pool of detached cards, so no FXML is loaded
+ * while scrolling and the number of cards stays flat however large the catalogue grows.
+ * <p>
+ * Bind the grid to a list, such as a <code>FilteredList</code>, with <code>setSource</code>. Each change to the list is
+ * applied incrementally: changed products are updated in place on their live cards, and only the rows from the first
+ * changed index are replaced. All rows are recalculated when the grid is resized to fit a different number of columns
+ *
+ * @param <T> the type of the source items
+ * @param <C> the type of the cards
+ */
+public final class VirtualizedCardGrid<T, C extends Node> extends ListView<List<T>>
+{
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String CARD_STYLE = "-fx-cursor: hand";
+    private static final String SELECTED_CARD_STYLE = "-fx-border-color: lightgray; -fx-border-width: 1; -fx-cursor: hand";
+    private static final double SCROLLBAR_ALLOWANCE = 20;     // Leave room for the vertical scroll bar
+    private static final int DEFAULT_POOL_SIZE = 24;
+
+    private double tileWidth = 200;
+    private double tileHeight = 225;
+    private double gap = 10;
+    private int columns = 1;
+    private int poolSize = DEFAULT_POOL_SIZE;
+
+    private Supplier<C> cardFactory;
+    private BiConsumer<C, T> cardUpdater;
+    private Function<T, ?> keyOf = Function.identity();
+    private Consumer<T> onCardClicked;
+
+    private ObservableList<T> source = FXCollections.emptyObservableList();
+    private final ListChangeListener<T> sourceListener = this::applyChange;
+    private final ObjectProperty<Object> selectedKey = new SimpleObjectProperty<>();    // Key of the highlighted card
+    private CardReconciler<T, C> reconciler;
+
+
+    /**
+     * Constructs an empty VirtualizedCardGrid. Set the card factory and updater before setting the source
+     */
+    public VirtualizedCardGrid()
+    {
+        setCellFactory(view -> new RowCell());
+        setFocusTraversable(false);
+        setStyle("-fx-background-color: transparent; -fx-background-insets: 0; -fx-padding: 0");
+        updateFixedCellSize();
+
+        // Only rebuild when the width changes the number of columns
+        widthProperty().addListener((observable, oldWidth, newWidth) ->
+        {
+            int newColumns = Math.max(1, (int) ((newWidth.doubleValue() - SCROLLBAR_ALLOWANCE + gap) / (tileWidth + gap)));
+            if (newColumns != columns)
+            {
+                columns = newColumns;
+                rebuildRows();
+            }
+        });
+    }
+
+
+    /**
+     * Binds the grid to a list, replacing any previous list. The grid follows changes to the list.
+     * The card factory, updater and key must be set first
+     *
+     * @param newSource the items to display, in order
+     */
+    public void setSource(@NotNull ObservableList<T> newSource)
+    {
+        source.removeListener(sourceListener);
+        getItems().clear();     // Let the cells release their cards before the reconciler is replaced
+        reconciler = new CardReconciler<>(cardFactory, cardUpdater, keyOf, poolSize);
+        source = newSource;
+        source.addListener(sourceListener);
+        rebuildRows();
+    }
+
+
+    /**
+     * Sets how new cards are created. Called once per card, for the visible cards only
+     *
+     * @param cardFactory creates an empty card
+     */
+    public void setCardFactory(@NotNull Supplier<C> cardFactory)
+    {
+        this.cardFactory = cardFactory;
+    }
+
+
+    /**
+     * Sets how a card displays an item. Called whenever a card is shown or given a different item
+     *
+     * @param cardUpdater updates a card with an item
+     */
+    public void setCardUpdater(@NotNull BiConsumer<C, T> cardUpdater)
+    {
+        this.cardUpdater = cardUpdater;
+    }
+
+
+    /**
+     * Sets how items are identified, so the highlighted card follows an item when it is replaced with a newer copy
+     *
+     * @param keyOf gets the key of an item, such as its id
+     */
+    public void setKeyOf(@NotNull Function<T, ?> keyOf)
+    {
+        this.keyOf = keyOf;
+    }
+
+
+    /**
+     * Sets the action run when a card is clicked, making the cards selectable. The clicked card is highlighted
+     *
+     * @param onCardClicked receives the item of the clicked card
+     */
+    public void setOnCardClicked(Consumer<T> onCardClicked)
+    {
+        this.onCardClicked = onCardClicked;
+    }
+
+
+    /**
+     * Redraws the card for a key, if it is on screen, without changing the source. Use when a card shows state
+     * kept outside its item, such as a basket quantity
+     *
+     * @param key the key of the item, as returned by the key function
+     */
+    public void refreshCard(@NotNull Object key)
+    {
+        if (reconciler != null)
+        {
+            reconciler.refresh(key);
+        }
+    }
+
+
+    public double getTileWidth()
+    {
+        return tileWidth;
+    }
+
+
+    public void setTileWidth(double tileWidth)
+    {
+        this.tileWidth = tileWidth;
+    }
+
+
+    public double getTileHeight()
+    {
+        return tileHeight;
+    }
+
+
+    public void setTileHeight(double tileHeight)
+    {
+        this.tileHeight = tileHeight;
+        updateFixedCellSize();
+    }
+
+
+    public double getGap()
+    {
+        return gap;
+    }
+
+
+    public void setGap(double gap)
+    {
+        this.gap = gap;
+        updateFixedCellSize();
+    }
+
+
+    public int getPoolSize()
+    {
+        return poolSize;
+    }
+
+
+    /**
+     * Sets how many detached cards are kept for reuse. Takes effect from the next call to <code>setSource</code>
+     *
+     * @param poolSize the pool size
+     */
+    public void setPoolSize(int poolSize)
+    {
+        this.poolSize = poolSize;
+    }
+
+
+    /**
+     * Gets the number of cards created so far, which is bounded by the visible rows rather than the number of items
+     *
+     * @return the card count
+     */
+    public int getCardCount()
+    {
+        return reconciler == null ? 0 : reconciler.getCreatedCount();
+    }
+
+
+    /**
+     * Helper method to give every row the same height, which lets the ListView skip measuring rows
+     */
+    private void updateFixedCellSize()
+    {
+        setFixedCellSize(tileHeight + gap);
+    }
+
+
+    /**
+     * Helper method to apply a change to the source. Live cards are updated in place by the reconciler, then the rows
+     * from the first changed index are replaced
+     */
+    private void applyChange(@NotNull ListChangeListener.Change<? extends T> change)
+    {
+        int firstChanged = reconciler.reconcile(change);
+        if (firstChanged >= 0)
+        {
+            updateRowsFrom(firstChanged / columns);
+        }
+    }
+
+
+    /**
+     * Helper method to replace the rows from <code>firstRow</code> that no longer hold the same items, so cells
+     * for unchanged rows are left alone
+     */
+    private void updateRowsFrom(int firstRow)
+    {
+        ObservableList<List<T>> rows = getItems();
+        int rowCount = (source.size() + columns - 1) / columns;
+
+        for (int rowIndex = firstRow; rowIndex < rowCount; rowIndex++)
+        {
+            int from = rowIndex * columns;
+            List<T> row = List.copyOf(source.subList(from, Math.min(from + columns, source.size())));
+            if (rowIndex >= rows.size())
+            {
+                rows.add(row);
+            } else if (!sameItems(rows.get(rowIndex), row))
+            {
+                rows.set(rowIndex, row);
+            }
+        }
+
+        if (rows.size() > rowCount)
+        {
+            rows.remove(rowCount, rows.size());
+        }
+    }
+
+
+    /**
+     * Helper method to check whether two rows hold the same item instances
+     */
+    private static <T> boolean sameItems(@NotNull List<T> first, @NotNull List<T> second)
+    {
+        if (first.size() != second.size())
+        {
+            return false;
+        }
+
+        for (int i = 0; i < first.size(); i++)
+        {
+            if (first.get(i) != second.get(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Helper method to split the whole source into rows of <code>columns</code> items. Only the visible row cells are updated
+     */
+    private void rebuildRows()
+    {
+        List<List<T>> rows = new ArrayList<>((source.size() + columns - 1) / columns);
+        for (int from = 0; from < source.size(); from += columns)
+        {
+            rows.add(List.copyOf(source.subList(from, Math.min(from + columns, source.size()))));
+        }
+        getItems().setAll(rows);
+        logger.debug("Arranged {} items into {} rows of {}", source.size(), rows.size(), columns);
+    }
+
+
+    /**
+     * A row of cards. Cards are taken from the reconciler for the items shown and given back when the row moves on
+     */
+    private final class RowCell extends ListCell<List<T>>
+    {
+        private final HBox row = new HBox(gap);
+        private final List<T> shownItems = new ArrayList<>();
+        private final List<C> shownCards = new ArrayList<>();
+
+
+        private RowCell()
+        {
+            setStyle("-fx-background-color: transparent; -fx-padding: 0");
+            setText(null);
+
+            // Move the highlight when another card is selected
+            selectedKey.addListener((observable, oldKey, newKey) -> updateHighlights());
+        }
+
+
+        @Override
+        protected void updateItem(List<T> items, boolean empty)
+        {
+            super.updateItem(items, empty);
+            List<T> newItems = empty || items == null ? List.of() : items;
+
+            releaseCards(newItems);
+            shownItems.clear();
+            shownCards.clear();
+
+            if (newItems.isEmpty())
+            {
+                row.getChildren().clear();
+                setGraphic(null);
+                return;
+            }
+
+            for (T item : newItems)
+            {
+                C card = reconciler.acquire(item);
+                card.setOnMouseClicked(event -> select(item));
+                shownItems.add(item);
+                shownCards.add(card);
+            }
+            row.getChildren().setAll(shownCards);
+            updateHighlights();
+            setGraphic(row);
+        }
+
+
+        /**
+         * Helper method to give back the cards for items this row no longer shows. A card already moved to another
+         * row belongs to that row, so it is left alone
+         */
+        private void releaseCards(@NotNull List<T> newItems)
+        {
+            Set<Object> newKeys = new HashSet<>();
+            newItems.forEach(item -> newKeys.add(keyOf.apply(item)));
+
+            for (T item : shownItems)
+            {
+                C card = reconciler.getCard(item);
+                if (!newKeys.contains(keyOf.apply(item)) && card != null && card.getParent() == row)
+                {
+                    row.getChildren().remove(card);
+                    reconciler.release(item);
+                }
+            }
+        }
+
+
+        /**
+         * Helper method to select the item of a clicked card
+         */
+        private void select(@NotNull T item)
+        {
+            if (onCardClicked != null)
+            {
+                selectedKey.set(keyOf.apply(item));
+                onCardClicked.accept(item);
+            }
+        }
+
+
+        /**
+         * Helper method to highlight the card showing the selected item
+         */
+        private void updateHighlights()
+        {
+            if (onCardClicked == null)
+            {
+                return;     // Cards are not selectable, so keep their own style
+            }
+
+            for (int i = 0; i < shownItems.size(); i++)
+            {
+                boolean selected = selectedKey.get() != null && Objects.equals(keyOf.apply(shownItems.get(i)), selectedKey.get());
+                shownCards.get(i).setStyle(selected ? SELECTED_CARD_STYLE : CARD_STYLE);
+            }
+        }
+    }
+}
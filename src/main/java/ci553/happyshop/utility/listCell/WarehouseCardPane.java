@@ -26,6 +26,15 @@ public class WarehouseCardPane extends CardPane
     @FXML
     private Button btnEdit, btnDelete;
 
+    /**
+     * Constructs an empty <code>WarehouseCardPane</code>, to be filled in later with <code>updateProduct</code>.
+     * Used by grids that reuse cards for different products
+     */
+    public WarehouseCardPane()
+    {
+        super("/fxml/WarehouseTileCell.fxml");
+    }
+
     /**
      * Calls the parent constructor to initialize the layout
      */
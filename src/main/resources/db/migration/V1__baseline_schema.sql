@@ -0,0 +1,38 @@
+-- Baseline schema, matching the tables SetDatabase created before migrations were introduced.
+-- Each table has a BIGINT primary key that is automatically generated
+
+CREATE TABLE CategoryTable (
+    id BIGINT PRIMARY KEY GENERATED ALWAYS AS IDENTITY,
+    name VARCHAR(50) NOT NULL UNIQUE,
+    description VARCHAR(255)
+);
+
+-- ProductTable has a foreign key connecting to CategoryTable
+CREATE TABLE ProductTable (
+    id BIGINT PRIMARY KEY GENERATED ALWAYS AS IDENTITY,
+    name VARCHAR(100) NOT NULL,
+    imageName VARCHAR(100),
+    unitPrice DOUBLE NOT NULL,
+    stockQuantity INT NOT NULL DEFAULT 100,
+    categoryID BIGINT,
+    CHECK(stockQuantity >= 0),
+    FOREIGN KEY (categoryID) REFERENCES CategoryTable(id)
+);
+
+-- type is "staff" or "customer"
+CREATE TABLE UserTable (
+    id BIGINT PRIMARY KEY GENERATED ALWAYS AS IDENTITY,
+    username VARCHAR(32) NOT NULL UNIQUE,
+    password VARCHAR(255) NOT NULL,
+    type VARCHAR(16) NOT NULL
+);
+
+-- BasketTable has a composite primary key of the user ID, and product ID
+CREATE TABLE BasketTable (
+    customerID BIGINT NOT NULL,
+    productID BIGINT NOT NULL,
+    quantity INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (customerID, productID),
+    FOREIGN KEY (customerID) REFERENCES UserTable(id) ON DELETE CASCADE,
+    FOREIGN KEY (productID) REFERENCES ProductTable(id) ON DELETE CASCADE
+);
@@ -0,0 +1,3 @@
+-- Products filtered by category and ordered by id, answered from the index alone.
+-- BasketTable(customerID) and UserTable(username) are already covered by constraint indexes
+CREATE INDEX ProductCategoryIdx ON ProductTable(categoryID, id);
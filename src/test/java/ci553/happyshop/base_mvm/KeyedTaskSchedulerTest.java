@@ -0,0 +1,78 @@
+package ci553.happyshop.base_mvm;
+
+import ci553.happyshop.utility.handlers.ExecutorHandler;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the coalescing of KeyedTaskScheduler on a single-thread executor
+ */
+class KeyedTaskSchedulerTest
+{
+    @Test
+    @DisplayName("Only the latest queued task for a key should run")
+    void testQueuedTasksAreCoalesced() throws Exception
+    {
+        ExecutorService executor = ExecutorHandler.getExecutorService("scheduler-test");
+        KeyedTaskScheduler scheduler = new KeyedTaskScheduler(executor);
+        List<String> ran = new CopyOnWriteArrayList<>();
+
+        // Hold the executor so the following tasks stay queued
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() ->
+        {
+            release.await();
+            return null;
+        });
+
+        scheduler.submit("load", isStale -> ran.add("first"));
+        scheduler.submit("load", isStale -> ran.add("second"));
+        scheduler.submit("other", isStale -> ran.add("other"));
+        scheduler.submit("load", isStale -> ran.add("third"));
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of("other", "third"), ran);
+        assertEquals(2, scheduler.getCoalescedCount());
+    }
+
+
+    @Test
+    @DisplayName("A running task should be told it is stale once a newer one is submitted")
+    void testRunningTaskBecomesStale() throws Exception
+    {
+        ExecutorService executor = ExecutorHandler.getExecutorService("scheduler-test");
+        KeyedTaskScheduler scheduler = new KeyedTaskScheduler(executor);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch resubmitted = new CountDownLatch(1);
+        CompletableFuture<Boolean> staleSeen = new CompletableFuture<>();
+
+        scheduler.submit("load", isStale ->
+        {
+            started.countDown();
+            try
+            {
+                resubmitted.await();
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            staleSeen.complete(isStale.getAsBoolean());
+        });
+
+        started.await();
+        scheduler.submit("load", isStale -> {});
+        resubmitted.countDown();
+
+        assertTrue(staleSeen.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
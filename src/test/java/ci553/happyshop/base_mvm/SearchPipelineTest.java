@@ -0,0 +1,114 @@
+package ci553.happyshop.base_mvm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the debouncing and stale-result dropping of SearchPipeline, with a direct executor in place of the JavaFX thread
+ */
+class SearchPipelineTest
+{
+    private ExecutorService executor;
+    private final List<String> evaluated = new CopyOnWriteArrayList<>();
+    private final List<String> applied = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void createExecutor()
+    {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterEach
+    void closeExecutor()
+    {
+        executor.shutdownNow();
+    }
+
+
+    @Test
+    @DisplayName("A burst of keystrokes should be evaluated and applied once, for the final query")
+    void testDebounce() throws Exception
+    {
+        CountDownLatch done = new CountDownLatch(1);
+        SearchPipeline<String> pipeline = new SearchPipeline<>("DebounceTest", executor, 50,
+                query ->
+                {
+                    evaluated.add(query);
+                    return query.toUpperCase();
+                },
+                applied::add, Runnable::run,
+                painted ->
+                {
+                    painted.run();
+                    done.countDown();
+                });
+
+        for (String query : List.of("s", "sp", "spe", "spea"))
+        {
+            pipeline.submit(query);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("spea"), evaluated);
+        assertEquals(List.of("SPEA"), applied);
+        assertEquals(1, pipeline.getAppliedCount());
+        assertTrue(pipeline.getMaxLatencyMillis() >= 50);
+    }
+
+
+    @Test
+    @DisplayName("A slow result should be dropped once a newer query has been submitted")
+    void testSupersededResultDropped() throws Exception
+    {
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        CountDownLatch slowRelease = new CountDownLatch(1);
+        CountDownLatch handedOver = new CountDownLatch(2);     // Both results reach the UI thread
+        SearchPipeline<String> pipeline = new SearchPipeline<>("DropTest", executor, 10,
+                query ->
+                {
+                    if (query.equals("slow"))
+                    {
+                        slowStarted.countDown();
+                        try
+                        {
+                            slowRelease.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return query;
+                },
+                applied::add,
+                task ->
+                {
+                    task.run();
+                    handedOver.countDown();
+                },
+                Runnable::run);
+
+        pipeline.submit("slow");
+        assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+
+        // The newer query is applied while the older one is still being evaluated
+        pipeline.submit("fast");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (applied.isEmpty() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(5);
+        }
+
+        slowRelease.countDown();
+        assertTrue(handedOver.await(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of("fast"), applied);
+        assertEquals(1, pipeline.getDroppedCount());
+    }
+}
@@ -0,0 +1,110 @@
+package ci553.happyshop.data;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the ConnectionPool against an in-memory Derby database
+ */
+class ConnectionPoolTest
+{
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void createPool()
+    {
+        DatabaseConnection dbConnection = new DatabaseConnection("jdbc:derby:memory:poolTest;create=true");
+        pool = new ConnectionPool(dbConnection, 1, Duration.ofMinutes(1), Duration.ofMillis(100));
+    }
+
+    @AfterEach
+    void closePool()
+    {
+        pool.close();
+    }
+
+
+    @Test
+    @DisplayName("Closing a pooled connection should return it to the pool for reuse")
+    void testConnectionIsReused() throws SQLException
+    {
+        PooledConnection first = pool.getConnection();
+        assertEquals(1, pool.getActiveCount());
+        first.close();
+
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+
+        // The same wrapper is handed out again instead of opening a new connection
+        try (PooledConnection second = pool.getConnection())
+        {
+            assertSame(first, second);
+            assertEquals(0, pool.getIdleCount());
+        }
+    }
+
+
+    @Test
+    @DisplayName("Callers should time out when every connection is checked out")
+    void testAcquireTimeout() throws SQLException
+    {
+        try (PooledConnection ignored = pool.getConnection())
+        {
+            assertThrows(SQLTimeoutException.class, () -> pool.getConnection());
+            assertEquals(0, pool.getWaitingCount());
+        }
+    }
+
+
+    @Test
+    @DisplayName("A closed pool should refuse to hand out connections")
+    void testClosedPool()
+    {
+        pool.close();
+        assertTrue(pool.isClosed());
+        assertThrows(SQLException.class, () -> pool.getConnection());
+    }
+
+
+    @Test
+    @DisplayName("The FX thread guard should refuse connections on the JavaFX thread in fail mode")
+    void testFxThreadGuard() throws Exception
+    {
+        FxThreadGuard.setMode(FxThreadGuard.Mode.FAIL);
+        try
+        {
+            // Other threads are unaffected
+            pool.getConnection().close();
+
+            long before = FxThreadGuard.getViolationCount();
+            SQLException[] thrown = new SQLException[1];
+            Thread fxThread = new Thread(() ->
+            {
+                try
+                {
+                    pool.getConnection().close();
+                } catch (SQLException e)
+                {
+                    thrown[0] = e;
+                }
+            }, "JavaFX Application Thread");
+            fxThread.start();
+            fxThread.join();
+
+            assertNotNull(thrown[0]);
+            assertEquals(before + 1, FxThreadGuard.getViolationCount());
+            assertEquals(0, pool.getActiveCount());
+        } finally
+        {
+            FxThreadGuard.setMode(FxThreadGuard.Mode.WARN);
+        }
+    }
+}
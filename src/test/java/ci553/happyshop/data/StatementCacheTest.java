@@ -0,0 +1,65 @@
+package ci553.happyshop.data;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the StatementCache LRU behaviour against an in-memory Derby database
+ */
+class StatementCacheTest
+{
+    private Connection connection;
+
+    @BeforeEach
+    void openConnection() throws SQLException
+    {
+        connection = DriverManager.getConnection("jdbc:derby:memory:statementCacheTest;create=true");
+    }
+
+    @AfterEach
+    void closeConnection() throws SQLException
+    {
+        connection.close();
+    }
+
+
+    @Test
+    @DisplayName("Preparing the same SQL twice should reuse the cached statement")
+    void testCacheHit() throws SQLException
+    {
+        StatementCache cache = new StatementCache(connection, 4);
+
+        PreparedStatement first = cache.prepare("VALUES 1");
+        PreparedStatement second = cache.prepare("VALUES 1");
+
+        assertSame(first, second);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+
+    @Test
+    @DisplayName("The least recently used statement should be closed when the cache is full")
+    void testLeastRecentlyUsedEviction() throws SQLException
+    {
+        StatementCache cache = new StatementCache(connection, 2);
+
+        PreparedStatement one = cache.prepare("VALUES 1");
+        PreparedStatement two = cache.prepare("VALUES 2");
+        cache.prepare("VALUES 1");              // "VALUES 2" is now the least recently used
+        cache.prepare("VALUES 3");
+
+        assertEquals(2, cache.size());
+        assertTrue(two.isClosed());
+        assertFalse(one.isClosed());
+    }
+}
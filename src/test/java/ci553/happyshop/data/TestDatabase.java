@@ -0,0 +1,167 @@
+package ci553.happyshop.data;
+
+import ci553.happyshop.systemSetup.MigrationRunner;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * An in-memory Derby database for repository and service tests, created by running the migrations so tests run
+ * against the real schema with its generated ids, constraints and cascading deletes. Each instance is a new
+ * database, so generated ids start at 1 in every test. Seed rows with the <code>add</code> methods, which return
+ * the generated ids, and close the database after the test to drop it
+ */
+public final class TestDatabase implements AutoCloseable
+{
+    private final String url;
+    private final DatabaseConnection dbConnection;
+    private final ConnectionPool pool;
+
+
+    /**
+     * Creates and migrates an in-memory database
+     *
+     * @param name the database name, unique to the test class
+     */
+    public TestDatabase(@NotNull String name)
+    {
+        url = "jdbc:derby:memory:" + name;
+        dbConnection = new DatabaseConnection(url + ";create=true");
+        new MigrationRunner(dbConnection).migrate(false);
+        pool = new ConnectionPool(dbConnection);
+    }
+
+
+    /**
+     * Gets the connection pool for the repositories under test
+     *
+     * @return the <code>ConnectionPool</code>
+     */
+    public ConnectionPool getPool()
+    {
+        return pool;
+    }
+
+
+    /**
+     * Inserts a category
+     *
+     * @param name the category name
+     * @return the generated id
+     * @throws SQLException if the row could not be inserted
+     */
+    public long addCategory(@NotNull String name) throws SQLException
+    {
+        return insert("INSERT INTO CategoryTable (name, description) VALUES (?, '')", name);
+    }
+
+
+    /**
+     * Inserts a product
+     *
+     * @param name          the product name
+     * @param unitPrice     the price
+     * @param stockQuantity the stock
+     * @param categoryID    the id of an existing category
+     * @return the generated id
+     * @throws SQLException if the row could not be inserted
+     */
+    public long addProduct(@NotNull String name, double unitPrice, int stockQuantity, long categoryID) throws SQLException
+    {
+        return insert("INSERT INTO ProductTable (name, imageName, unitPrice, stockQuantity, categoryID) VALUES (?, ?, ?, ?, ?)",
+                name, name.toLowerCase() + ".jpg", unitPrice, stockQuantity, categoryID);
+    }
+
+
+    /**
+     * Inserts a customer, so basket rows can refer to it
+     *
+     * @param username the username
+     * @return the generated id
+     * @throws SQLException if the row could not be inserted
+     */
+    public long addCustomer(@NotNull String username) throws SQLException
+    {
+        return insert("INSERT INTO UserTable (username, password, type) VALUES (?, 'password', 'customer')", username);
+    }
+
+
+    /**
+     * Runs a statement directly, e.g. to change a row behind a cache
+     *
+     * @param sql the statement
+     * @throws SQLException if the statement failed
+     */
+    public void execute(@NotNull String sql) throws SQLException
+    {
+        try (Connection connection = dbConnection.getConnection();
+             Statement statement = connection.createStatement())
+        {
+            statement.executeUpdate(sql);
+        }
+    }
+
+
+    /**
+     * Reads a single number directly, e.g. a product's stock
+     *
+     * @param sql a query returning one row with one numeric column
+     * @return the value
+     * @throws SQLException if the query failed
+     */
+    public int queryInt(@NotNull String sql) throws SQLException
+    {
+        try (Connection connection = dbConnection.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql))
+        {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+
+    /**
+     * Closes the pool and drops the database
+     */
+    @Override
+    public void close()
+    {
+        pool.close();
+        try
+        {
+            DriverManager.getConnection(url + ";drop=true");
+        } catch (SQLException e)
+        {
+            // Derby always reports a dropped database with an exception
+        }
+    }
+
+
+    /**
+     * Helper method to run an insert and read back its generated id
+     */
+    private long insert(@NotNull String sql, Object... values) throws SQLException
+    {
+        try (Connection connection = dbConnection.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS))
+        {
+            for (int i = 0; i < values.length; i++)
+            {
+                statement.setObject(i + 1, values[i]);
+            }
+            statement.executeUpdate();
+
+            try (ResultSet keys = statement.getGeneratedKeys())
+            {
+                keys.next();
+                return keys.getLong(1);
+            }
+        }
+    }
+}
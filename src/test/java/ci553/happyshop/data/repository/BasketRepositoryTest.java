@@ -0,0 +1,91 @@
+package ci553.happyshop.data.repository;
+
+import ci553.happyshop.catalogue.BasketItem;
+import ci553.happyshop.catalogue.BasketItemID;
+import ci553.happyshop.data.TestDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the batched quantity writes and per-customer reads of BasketRepository against an in-memory Derby database
+ */
+class BasketRepositoryTest
+{
+    private static final long MISSING_PRODUCT = 999;
+
+    private TestDatabase database;
+    private BasketRepository basketRepository;
+    private long customer;
+    private long otherCustomer;
+    private long apple;
+    private long pear;
+
+    @BeforeEach
+    void createDatabase() throws SQLException
+    {
+        database = new TestDatabase("basketTest");
+        basketRepository = new BasketRepository(database.getPool());
+
+        customer = database.addCustomer("alice");
+        otherCustomer = database.addCustomer("bob");
+        long fruit = database.addCategory("Fruit");
+        apple = database.addProduct("Apple", 0.5, 100, fruit);
+        pear = database.addProduct("Pear", 1.25, 100, fruit);
+    }
+
+    @AfterEach
+    void dropDatabase()
+    {
+        database.close();
+    }
+
+
+    @Test
+    @DisplayName("saveQuantities should insert, update and delete rows in one batch")
+    void testSaveQuantities()
+    {
+        basketRepository.saveQuantities(customer, Map.of(apple, 2, pear, 1));
+        basketRepository.saveQuantities(otherCustomer, Map.of(pear, 1));     // Another customer's basket is not included
+        assertEquals(2, quantityOf(customer, apple));
+        assertEquals(2, basketRepository.findByCustomer(customer).size());
+
+        // Zero deletes the row, and a zero for a missing row inserts nothing
+        basketRepository.saveQuantities(customer, Map.of(apple, 5, pear, 0, MISSING_PRODUCT, 0));
+        assertEquals(5, quantityOf(customer, apple));
+        assertEquals(List.of(apple), basketRepository.findByCustomer(customer).stream()
+                .map(item -> item.getId().productID())
+                .toList());
+        assertEquals(1, basketRepository.findByCustomer(otherCustomer).size());
+    }
+
+
+    @Test
+    @DisplayName("Deleting a product should remove it from every basket")
+    void testProductDeleteCascades() throws SQLException
+    {
+        basketRepository.saveQuantities(customer, Map.of(apple, 2, pear, 1));
+
+        database.execute("DELETE FROM ProductTable WHERE id = " + pear);
+        assertEquals(List.of(apple), basketRepository.findByCustomer(customer).stream()
+                .map(item -> item.getId().productID())
+                .toList());
+    }
+
+
+    /**
+     * Helper method to read a quantity with the primary key lookup, 0 if the row does not exist
+     */
+    private int quantityOf(long customerID, long productID)
+    {
+        BasketItem item = basketRepository.getById(new BasketItemID(customerID, productID));
+        return item == null ? 0 : item.getQuantity();
+    }
+}
@@ -0,0 +1,128 @@
+package ci553.happyshop.data.repository;
+
+import ci553.happyshop.catalogue.BasketItemID;
+import ci553.happyshop.catalogue.DTO.CheckoutLine;
+import ci553.happyshop.catalogue.DTO.CheckoutResult;
+import ci553.happyshop.data.PooledConnection;
+import ci553.happyshop.data.TestDatabase;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the transactional checkout of CheckoutRepository against an in-memory Derby database
+ */
+class CheckoutRepositoryTest
+{
+    private TestDatabase database;
+    private CheckoutRepository checkoutRepository;
+    private BasketRepository basketRepository;
+    private long customer;
+    private long apple;
+    private long pear;
+
+    @BeforeEach
+    void createDatabase() throws SQLException
+    {
+        database = new TestDatabase("checkoutTest");
+        checkoutRepository = new CheckoutRepository(database.getPool());
+        basketRepository = new BasketRepository(database.getPool());
+
+        customer = database.addCustomer("alice");
+        long fruit = database.addCategory("Fruit");
+        apple = database.addProduct("Apple", 0.5, 5, fruit);
+        pear = database.addProduct("Pear", 1.25, 1, fruit);
+    }
+
+    @AfterEach
+    void dropDatabase()
+    {
+        database.close();
+    }
+
+
+    @Test
+    @DisplayName("Checkout should buy lines with enough stock and keep the rest in the basket")
+    void testCheckoutWithShortfall() throws SQLException
+    {
+        basketRepository.saveQuantities(customer, Map.of(apple, 3, pear, 4));     // Only 1 pear in stock
+
+        CheckoutResult result = checkoutRepository.checkout(customer);
+
+        assertFalse(result.isComplete());
+        assertEquals(1, result.shortfalls().size());
+
+        CheckoutLine shortfall = result.shortfalls().get(0);
+        assertEquals(pear, shortfall.productID());
+        assertEquals(3, shortfall.shortfall());
+
+        // The purchased line is gone, the short line is untouched
+        assertNull(basketRepository.getById(new BasketItemID(customer, apple)));
+        assertEquals(4, basketRepository.getById(new BasketItemID(customer, pear)).getQuantity());
+        assertEquals(2, getStock(apple));
+        assertEquals(1, getStock(pear));
+    }
+
+
+    @Test
+    @DisplayName("A line whose stock is raised after the update failed should still be reported as not purchased")
+    void testRestockBeforeReread() throws SQLException
+    {
+        basketRepository.saveQuantities(customer, Map.of(pear, 4));     // Only 1 pear in stock
+
+        // The pear is restocked between the conditional update and the shortfall read. The checkout transaction
+        // holds the row lock, so the restock runs on its connection rather than from a second one
+        CheckoutRepository racingRepository = new CheckoutRepository(database.getPool())
+        {
+            @Override
+            int getStockQuantity(@NotNull PooledConnection connection, long productID) throws SQLException
+            {
+                try (Statement statement = connection.createStatement())
+                {
+                    statement.executeUpdate("UPDATE ProductTable SET stockQuantity = 10 WHERE id = " + productID);
+                }
+                return super.getStockQuantity(connection, productID);
+            }
+        };
+
+        CheckoutResult result = racingRepository.checkout(customer);
+
+        assertFalse(result.isComplete());
+        CheckoutLine line = result.lines().get(0);
+        assertFalse(line.fulfilled());
+        assertEquals(1, line.shortfall());
+        assertEquals(List.of(line), result.shortfalls());
+
+        // Nothing was bought, the line stays in the basket
+        assertEquals(4, basketRepository.getById(new BasketItemID(customer, pear)).getQuantity());
+        assertEquals(10, getStock(pear));
+    }
+
+
+    @Test
+    @DisplayName("Checking out an empty basket should succeed with no lines")
+    void testEmptyCheckout()
+    {
+        CheckoutResult result = checkoutRepository.checkout(customer);
+        assertTrue(result.isComplete());
+        assertTrue(result.lines().isEmpty());
+    }
+
+
+    /**
+     * Helper method to read a product's stock directly
+     */
+    private int getStock(long productID) throws SQLException
+    {
+        return database.queryInt("SELECT stockQuantity FROM ProductTable WHERE id = " + productID);
+    }
+}
@@ -0,0 +1,98 @@
+package ci553.happyshop.data.repository;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.catalogue.DTO.ProductWithCategory;
+import ci553.happyshop.data.TestDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the keyset paging and generated key inserts of ProductRepository against an in-memory Derby database
+ */
+class ProductRepositoryTest
+{
+    private TestDatabase database;
+    private ProductRepository productRepository;
+    private long fruit;
+    private final List<Long> ids = new ArrayList<>();
+
+    @BeforeEach
+    void createDatabase() throws SQLException
+    {
+        database = new TestDatabase("productTest");
+        productRepository = new ProductRepository(database.getPool());
+
+        fruit = database.addCategory("Fruit");
+        long audio = database.addCategory("Audio");
+
+        // Five products, alternating between the categories, starting with fruit
+        for (int i = 0; i < 5; i++)
+        {
+            ids.add(database.addProduct("Product " + (i + 1), 1.0, 10, i % 2 == 0 ? fruit : audio));
+        }
+    }
+
+    @AfterEach
+    void dropDatabase()
+    {
+        database.close();
+    }
+
+
+    @Test
+    @DisplayName("Keyset pages should continue after the last id and end on a short page")
+    void testPaging()
+    {
+        List<ProductWithCategory> rows = new ArrayList<>();
+
+        long afterId = productRepository.forEachWithCategory(0, 2, null, rows::add);
+        assertEquals(ids.get(1).longValue(), afterId);
+
+        afterId = productRepository.forEachWithCategory(afterId, 2, null, rows::add);
+        assertEquals(ids.get(3).longValue(), afterId);
+
+        afterId = productRepository.forEachWithCategory(afterId, 2, null, rows::add);
+        assertEquals(ProductRepository.END_OF_RESULTS, afterId);
+
+        assertEquals(ids, rows.stream().map(row -> row.product().getId()).toList());
+    }
+
+
+    @Test
+    @DisplayName("Category pages should only contain the requested category")
+    void testCategoryPage()
+    {
+        List<ProductWithCategory> rows = new ArrayList<>();
+
+        long afterId = productRepository.forEachWithCategory(0, 10, fruit, rows::add);
+
+        assertEquals(ProductRepository.END_OF_RESULTS, afterId);
+        assertEquals(List.of(ids.get(0), ids.get(2), ids.get(4)), rows.stream().map(row -> row.product().getId()).toList());
+        assertEquals("Product 3", rows.get(1).product().getName());
+    }
+
+
+    @Test
+    @DisplayName("Inserts should return the products with their generated ids")
+    void testInsertReturnsGeneratedIds()
+    {
+        long lastId = ids.getLast();
+        Product inserted = productRepository.insert(new Product(0, "Kettle", "k.jpg", 20.0, 5, fruit));
+        assertEquals(lastId + 1, inserted.getId());
+
+        List<Product> batch = productRepository.insertAll(List.of(
+                new Product(0, "Toaster", "t.jpg", 15.0, 5, fruit),
+                new Product(0, "Blender", "b.jpg", 30.0, 5, fruit)));
+
+        assertEquals(List.of(lastId + 2, lastId + 3), batch.stream().map(Product::getId).toList());
+        assertEquals("Blender", productRepository.getById(lastId + 3).getName());
+    }
+}
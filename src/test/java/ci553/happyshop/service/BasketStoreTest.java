@@ -0,0 +1,128 @@
+package ci553.happyshop.service;
+
+import ci553.happyshop.catalogue.BasketItem;
+import ci553.happyshop.catalogue.BasketItemID;
+import ci553.happyshop.data.TestDatabase;
+import ci553.happyshop.data.repository.BasketRepository;
+import ci553.happyshop.data.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the in-memory state and batched flushes of BasketStore against an in-memory Derby database
+ */
+class BasketStoreTest
+{
+    private static final long MISSING_PRODUCT = 999;
+
+    private TestDatabase database;
+    private BasketRepository basketRepository;
+    private BasketStore basketStore;
+    private long customer;
+    private long otherCustomer;
+    private long apple;
+    private long pear;
+
+    @BeforeEach
+    void createDatabase() throws SQLException
+    {
+        database = new TestDatabase("basketStoreTest");
+        basketRepository = new BasketRepository(database.getPool());
+
+        // Flushes are only triggered by the tests
+        basketStore = new BasketStore(basketRepository, new CatalogueCache(new ProductRepository(database.getPool())), 3_600_000);
+
+        customer = database.addCustomer("alice");
+        otherCustomer = database.addCustomer("bob");
+        long fruit = database.addCategory("Fruit");
+        apple = database.addProduct("Apple", 0.5, 100, fruit);
+        pear = database.addProduct("Pear", 1.25, 100, fruit);
+        basketRepository.saveQuantities(customer, Map.of(pear, 1));
+    }
+
+    @AfterEach
+    void dropDatabase()
+    {
+        basketStore.close();
+        database.close();
+    }
+
+
+    @Test
+    @DisplayName("Changes should be served from memory and written on the next flush")
+    void testWriteBehind()
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            basketStore.add(customer, apple, 1);
+        }
+        assertTrue(basketStore.remove(customer, pear, 1));
+        assertFalse(basketStore.remove(customer, MISSING_PRODUCT, 1));
+
+        assertEquals(5, basketStore.getQuantity(customer, apple));
+        assertEquals(2.5, basketStore.getTotalPrice(customer));
+
+        // Nothing has been written yet
+        assertEquals(0, quantityOf(customer, apple));
+        assertEquals(1, quantityOf(customer, pear));
+
+        basketStore.flushAll();
+        assertEquals(5, quantityOf(customer, apple));
+        assertEquals(1, basketRepository.findByCustomer(customer).size());     // The removed line was deleted
+    }
+
+
+    @Test
+    @DisplayName("flushAndRun should flush before the action and reload after it")
+    void testFlushAndRun()
+    {
+        basketStore.add(customer, apple, 2);
+
+        int seen = basketStore.flushAndRun(customer, () ->
+        {
+            int quantity = quantityOf(customer, apple);
+            basketRepository.deleteAllByID(customer);
+            return quantity;
+        });
+
+        assertEquals(2, seen);
+        assertEquals(0, basketStore.getQuantity(customer, apple));
+        assertTrue(basketStore.getAllWithDetails(customer).isEmpty());
+    }
+
+
+    @Test
+    @DisplayName("clear should empty a basket whose changes have not been flushed, and an empty basket")
+    void testClearUnflushed()
+    {
+        basketStore.add(customer, apple, 2);
+
+        assertEquals(List.of(apple, pear), basketStore.clear(customer));
+        assertEquals(0, basketStore.getQuantity(customer, apple));
+        assertTrue(basketRepository.findByCustomer(customer).isEmpty());
+
+        // The scheduled flush must not write the cleared lines back
+        basketStore.flushAll();
+        assertTrue(basketRepository.findByCustomer(customer).isEmpty());
+
+        assertTrue(basketStore.clear(otherCustomer).isEmpty());
+    }
+
+
+    /**
+     * Helper method to read a quantity from the database, 0 if the row does not exist
+     */
+    private int quantityOf(long customerID, long productID)
+    {
+        BasketItem item = basketRepository.getById(new BasketItemID(customerID, productID));
+        return item == null ? 0 : item.getQuantity();
+    }
+}
@@ -0,0 +1,121 @@
+package ci553.happyshop.service;
+
+import ci553.happyshop.catalogue.Category;
+import ci553.happyshop.catalogue.DTO.ProductWithCategory;
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.data.TestDatabase;
+import ci553.happyshop.data.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the read-through loading, single-product patches and version invalidation of CatalogueCache against an in-memory Derby database
+ */
+class CatalogueCacheTest
+{
+    private TestDatabase database;
+    private CatalogueCache catalogueCache;
+    private long fruit;
+    private long audio;
+    private long apple;
+    private long speaker;
+    private long pear;
+
+    @BeforeEach
+    void createDatabase() throws SQLException
+    {
+        database = new TestDatabase("catalogueTest");
+        catalogueCache = new CatalogueCache(new ProductRepository(database.getPool()));
+
+        fruit = database.addCategory("Fruit");
+        audio = database.addCategory("Audio");
+        apple = database.addProduct("Apple", 0.5, 10, fruit);
+        speaker = database.addProduct("Speaker", 25.0, 3, audio);
+        pear = database.addProduct("Pear", 0.6, 8, fruit);
+    }
+
+    @AfterEach
+    void dropDatabase()
+    {
+        database.close();
+    }
+
+
+    @Test
+    @DisplayName("Repeated reads should be served from one snapshot")
+    void testReadsAreCached()
+    {
+        assertEquals(3, catalogueCache.getAll().size());
+        assertEquals(List.of(apple, pear), catalogueCache.getByCategory(fruit).stream().map(row -> row.product().getId()).toList());
+        assertEquals("Speaker", catalogueCache.getById(speaker).product().getName());
+        assertNull(catalogueCache.getById(99));
+
+        assertEquals(1, catalogueCache.getMissCount());
+        assertEquals(3, catalogueCache.getHitCount());
+        assertEquals(0.75, catalogueCache.getHitRatio());
+    }
+
+
+    @Test
+    @DisplayName("Invalidating should reload the changed rows on the next read")
+    void testInvalidate() throws SQLException
+    {
+        assertEquals(3, catalogueCache.getById(speaker).product().getStockQuantity());
+
+        database.execute("UPDATE ProductTable SET stockQuantity = 0 WHERE id = " + speaker);
+
+        // Still the old snapshot until a writer invalidates it
+        assertEquals(3, catalogueCache.getById(speaker).product().getStockQuantity());
+
+        catalogueCache.invalidate();
+        assertEquals(0, catalogueCache.getById(speaker).product().getStockQuantity());
+        assertEquals(2, catalogueCache.getMissCount());
+    }
+
+
+    @Test
+    @DisplayName("Patching single products should update the snapshot without reloading it")
+    void testPatch() throws SQLException
+    {
+        assertEquals(3, catalogueCache.getAll().size());
+
+        // Move the speaker into the fruit category
+        catalogueCache.put(new ProductWithCategory(
+                new Product(speaker, "Speaker", "s.jpg", 20.0, 3, fruit), new Category(fruit, "Fruit", "")));
+        assertEquals(List.of(apple, speaker, pear), catalogueCache.getByCategory(fruit).stream().map(row -> row.product().getId()).toList());
+        assertTrue(catalogueCache.getByCategory(audio).isEmpty());
+
+        catalogueCache.remove(apple);
+        assertNull(catalogueCache.getById(apple));
+
+        database.execute("UPDATE ProductTable SET stockQuantity = 2 WHERE id = " + pear);
+        assertEquals(2, catalogueCache.refresh(pear).product().getStockQuantity());
+        assertEquals(2, catalogueCache.getById(pear).product().getStockQuantity());
+
+        assertEquals(1, catalogueCache.getMissCount());
+    }
+
+
+    @Test
+    @DisplayName("A patch should copy only the category list it changes")
+    void testPatchCopiesOneCategory()
+    {
+        List<ProductWithCategory> fruitBefore = catalogueCache.getByCategory(fruit);
+        List<ProductWithCategory> audioBefore = catalogueCache.getByCategory(audio);
+
+        catalogueCache.put(new ProductWithCategory(
+                new Product(pear, "Pear", "pear.jpg", 0.7, 8, fruit), new Category(fruit, "Fruit", "")));
+
+        // Lists already handed out are not modified, and the untouched category keeps its list
+        assertEquals(0.6, fruitBefore.get(1).product().getUnitPrice());
+        assertEquals(0.7, catalogueCache.getByCategory(fruit).get(1).product().getUnitPrice());
+        assertSame(audioBefore, catalogueCache.getByCategory(audio));
+    }
+}
@@ -0,0 +1,78 @@
+package ci553.happyshop.service;
+
+import ci553.happyshop.catalogue.Category;
+import ci553.happyshop.catalogue.DTO.ProductWithCategory;
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the incremental updates and set operations of CategoryBitmapIndex
+ */
+class CategoryBitmapIndexTest
+{
+    private CategoryBitmapIndex index;
+
+    @BeforeEach
+    void buildIndex()
+    {
+        Category fruit = new Category(1, "Fruit", "");
+        Category audio = new Category(2, "Audio", "");
+        index = new CategoryBitmapIndex();
+        index.rebuild(List.of(
+                new ProductWithCategory(new Product(1, "Apple", "a.jpg", 1.0, 5, 1), fruit),
+                new ProductWithCategory(new Product(2, "Speaker", "s.jpg", 30.0, 5, 2), audio),
+                new ProductWithCategory(new Product(3, "Banana", "b.jpg", 1.0, 5, 1), fruit)));
+    }
+
+
+    @Test
+    @DisplayName("Each category should hold the bits of its products")
+    void testCategories()
+    {
+        assertEquals(BitSet.valueOf(new long[]{0b1010}), index.getProducts(1));
+        assertTrue(CategoryBitmapIndex.contains(index.getProducts(2), 2));
+        assertTrue(index.getProducts(99).isEmpty());
+
+        // Callers get copies
+        index.getProducts(1).clear();
+        assertEquals(2, index.getProducts(1).cardinality());
+    }
+
+
+    @Test
+    @DisplayName("Creating, moving and deleting products should update the categories")
+    void testIncrementalUpdates()
+    {
+        index.put(4, 2);
+        index.put(1, 2);        // Moved from Fruit to Audio
+        index.remove(3);
+
+        assertTrue(index.getProducts(1).isEmpty());
+        assertEquals(List.of(1, 2, 4), index.getProducts(2).stream().boxed().toList());
+    }
+
+
+    @Test
+    @DisplayName("Category combined with search should be a single AND")
+    void testCombinedWithSearch()
+    {
+        ProductSearchIndex searchIndex = new ProductSearchIndex();
+        searchIndex.put(1, "Apple");
+        searchIndex.put(2, "Speaker");
+        searchIndex.put(3, "Banana");
+
+        BitSet visible = index.getProducts(1);
+        visible.and(searchIndex.search("a").products());
+        assertEquals(List.of(1, 3), visible.stream().boxed().toList());
+
+        visible.and(searchIndex.search("ban").products());
+        assertEquals(List.of(3), visible.stream().boxed().toList());
+    }
+}
@@ -0,0 +1,86 @@
+package ci553.happyshop.service;
+
+import ci553.happyshop.catalogue.Category;
+import ci553.happyshop.catalogue.DTO.ProductWithCategory;
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the matching and incremental updates of ProductSearchIndex
+ */
+class ProductSearchIndexTest
+{
+    private ProductSearchIndex index;
+
+    @BeforeEach
+    void buildIndex()
+    {
+        Category category = new Category(1, "Audio", "");
+        index = new ProductSearchIndex();
+        index.rebuild(List.of(
+                new ProductWithCategory(new Product(1, "Portable Speaker", "s.jpg", 30.0, 5, 1), category),
+                new ProductWithCategory(new Product(12, "Headphones", "h.jpg", 20.0, 5, 1), category),
+                new ProductWithCategory(new Product(21, "Speaker Stand", "st.jpg", 15.0, 5, 1), category),
+                new ProductWithCategory(new Product(120, "Phone Charger", "c.jpg", 10.0, 5, 1), category)));
+    }
+
+
+    @Test
+    @DisplayName("Names should match anywhere, ignoring case and surrounding whitespace")
+    void testNameMatches()
+    {
+        assertEquals(bits(1, 21), index.search("SPEAKER").products());
+        assertEquals(bits(12, 120), index.search(" phone").products());
+
+        // Short queries use a single gram lookup
+        assertEquals(bits(12, 120), index.search("ph").products());
+        assertTrue(index.search("rtab").contains(1));
+        assertTrue(index.search("spreak").products().isEmpty());
+    }
+
+
+    @Test
+    @DisplayName("Ids should match by prefix")
+    void testIdMatches()
+    {
+        assertEquals(bits(12, 120), index.search("12").products());
+        assertEquals(bits(1, 12, 120), index.search("1").products());
+        assertFalse(index.search("2").contains(12));
+    }
+
+
+    @Test
+    @DisplayName("Updates and removals should change the results without a rebuild")
+    void testIncrementalUpdates()
+    {
+        index.put(12, "Wireless Earbuds");
+        assertFalse(index.search("headphones").contains(12));
+        assertTrue(index.search("earbuds").contains(12));
+
+        index.remove(21);
+        assertEquals(bits(1), index.search("speaker").products());
+        assertFalse(index.search("21").contains(21));
+        assertEquals(3, index.size());
+    }
+
+
+    /**
+     * Helper method to build the expected set of product ids
+     */
+    private static BitSet bits(int... productIDs)
+    {
+        BitSet bits = new BitSet();
+        for (int productID : productIDs)
+        {
+            bits.set(productID);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,51 @@
+package ci553.happyshop.service.event;
+
+import ci553.happyshop.service.event.ChangeEvent.ProductDeleted;
+import ci553.happyshop.service.event.ChangeEvent.ProductUpdated;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the typed delivery of ChangeEventBus
+ */
+class ChangeEventBusTest
+{
+    @Test
+    @DisplayName("Listeners should only receive their event type until they unsubscribe")
+    void testSubscribe()
+    {
+        ChangeEventBus bus = new ChangeEventBus();
+        List<Long> updated = new ArrayList<>();
+
+        Runnable unsubscribe = bus.subscribe(ProductUpdated.class, event -> updated.add(event.productID()));
+        bus.publish(new ProductUpdated(1));
+        bus.publish(new ProductDeleted(2));
+        unsubscribe.run();
+        bus.publish(new ProductUpdated(3));
+
+        assertEquals(List.of(1L), updated);
+    }
+
+
+    @Test
+    @DisplayName("A failing listener should not stop the others")
+    void testFailingListener()
+    {
+        ChangeEventBus bus = new ChangeEventBus();
+        List<ChangeEvent> received = new ArrayList<>();
+
+        bus.subscribe(ProductDeleted.class, event ->
+        {
+            throw new IllegalStateException("listener failure");
+        });
+        bus.subscribe(ProductDeleted.class, received::add);
+        bus.publish(new ProductDeleted(5));
+
+        assertEquals(List.of(new ProductDeleted(5)), received);
+    }
+}
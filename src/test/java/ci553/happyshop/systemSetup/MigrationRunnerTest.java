@@ -0,0 +1,113 @@
+package ci553.happyshop.systemSetup;
+
+import ci553.happyshop.data.DatabaseConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the MigrationRunner against in-memory Derby databases
+ */
+class MigrationRunnerTest
+{
+    private static final String DB_URL = "jdbc:derby:memory:migrationTest";
+
+    @AfterEach
+    void dropDatabase()
+    {
+        try
+        {
+            DriverManager.getConnection(DB_URL + ";drop=true");
+        } catch (SQLException e)
+        {
+            // Derby always reports a dropped database with an exception
+        }
+    }
+
+
+    @Test
+    @DisplayName("Migrations should be applied once, then running again should do nothing")
+    void testMigrateIsIdempotent() throws SQLException
+    {
+        MigrationRunner runner = new MigrationRunner(new DatabaseConnection(DB_URL + ";create=true"));
+
+        List<MigrationRunner.Migration> applied = runner.migrate(false);
+        assertEquals(MigrationRunner.loadMigrations().size(), applied.size());
+        assertTrue(runner.migrate(false).isEmpty());
+        assertEquals(applied.size(), countVersions());
+    }
+
+
+    @Test
+    @DisplayName("A dry run should report pending migrations without creating anything")
+    void testDryRun() throws SQLException
+    {
+        MigrationRunner runner = new MigrationRunner(new DatabaseConnection(DB_URL + ";create=true"));
+
+        assertFalse(runner.migrate(true).isEmpty());
+        try (Connection connection = DriverManager.getConnection(DB_URL);
+             ResultSet tables = connection.getMetaData().getTables(null, null, "PRODUCTTABLE", null))
+        {
+            assertFalse(tables.next());
+        }
+    }
+
+
+    @Test
+    @DisplayName("An existing database without a version table should be baselined at V1")
+    void testBaseline() throws SQLException
+    {
+        try (Connection connection = DriverManager.getConnection(DB_URL + ";create=true");
+             Statement statement = connection.createStatement())
+        {
+            statement.executeUpdate("CREATE TABLE ProductTable (id BIGINT PRIMARY KEY, categoryID BIGINT)");
+        }
+
+        List<MigrationRunner.Migration> applied = new MigrationRunner(new DatabaseConnection(DB_URL)).migrate(false);
+
+        // V1 is recorded without running, so only the later migrations were applied
+        assertTrue(applied.stream().noneMatch(migration -> migration.version() == 1));
+        assertEquals(MigrationRunner.loadMigrations().size(), countVersions());
+    }
+
+
+    @Test
+    @DisplayName("Scripts should be split on semicolons with comment lines removed")
+    void testSplitStatements()
+    {
+        List<String> statements = MigrationRunner.splitStatements("""
+                -- A comment
+                CREATE TABLE A (
+                    id INT
+                );
+                CREATE INDEX AIdx ON A(id);
+                """);
+
+        assertEquals(2, statements.size());
+        assertEquals("CREATE INDEX AIdx ON A(id)", statements.get(1));
+    }
+
+
+    /**
+     * Helper method to count the rows in SchemaVersion
+     */
+    private int countVersions() throws SQLException
+    {
+        try (Connection connection = DriverManager.getConnection(DB_URL);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM SchemaVersion"))
+        {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
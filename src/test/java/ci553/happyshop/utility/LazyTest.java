@@ -0,0 +1,75 @@
+package ci553.happyshop.utility;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the thread-safe initialization of Lazy
+ */
+class LazyTest
+{
+    @Test
+    @DisplayName("Concurrent callers should all receive the single instance created once")
+    void testCreatedOnce() throws Exception
+    {
+        AtomicInteger created = new AtomicInteger(0);
+        Lazy<Object> lazy = new Lazy<>(() ->
+        {
+            created.incrementAndGet();
+            try
+            {
+                Thread.sleep(20);       // Widen the window for a second creation
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return new Object();
+        });
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Object>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+        {
+            for (int i = 0; i < 16; i++)
+            {
+                results.add(executor.submit(() ->
+                {
+                    start.await();
+                    return lazy.get();
+                }));
+            }
+            start.countDown();
+
+            Object first = results.getFirst().get(5, TimeUnit.SECONDS);
+            for (Future<Object> result : results)
+            {
+                assertSame(first, result.get(5, TimeUnit.SECONDS));
+            }
+        }
+
+        assertEquals(1, created.get());
+    }
+
+
+    @Test
+    @DisplayName("ifInitialized should only run once the instance has been created")
+    void testIfInitialized()
+    {
+        Lazy<String> lazy = new Lazy<>(() -> "instance");
+        List<String> closed = new ArrayList<>();
+
+        lazy.ifInitialized(closed::add);
+        assertTrue(closed.isEmpty());
+
+        assertEquals("instance", lazy.get());
+        lazy.ifInitialized(closed::add);
+        assertEquals(List.of("instance"), closed);
+    }
+}
@@ -0,0 +1,59 @@
+package ci553.happyshop.utility.handlers;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that SerialExecutor runs tasks one at a time and in order, on a TaskGroup that allows more
+ */
+class SerialExecutorTest
+{
+    @Test
+    @DisplayName("Tasks should run one at a time, in submission order")
+    void testSubmissionOrder() throws Exception
+    {
+        TaskGroup group = new TaskGroup("SerialTest", Executors.newVirtualThreadPerTaskExecutor(), 4);
+        SerialExecutor serial = new SerialExecutor(group);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+
+        for (int i = 0; i < 50; i++)
+        {
+            int task = i;
+            serial.execute(() ->
+            {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.yield();
+                order.add(task);
+                running.decrementAndGet();
+            });
+        }
+
+        // Each task hands on the next before it finishes, so wait for the last one before shutting down
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (order.size() < 50 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        group.shutdown();
+        assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+        {
+            expected.add(i);
+        }
+        assertEquals(expected, order);
+        assertEquals(1, maxRunning.get());
+    }
+}
@@ -0,0 +1,61 @@
+package ci553.happyshop.utility.handlers;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the concurrency limit, metrics and shutdown of TaskGroup
+ */
+class TaskGroupTest
+{
+    @Test
+    @DisplayName("No more than the group's limit of tasks should run at once")
+    void testConcurrencyLimit() throws Exception
+    {
+        TaskGroup group = new TaskGroup("LimitTest", Executors.newVirtualThreadPerTaskExecutor(), 2);
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+
+        for (int i = 0; i < 10; i++)
+        {
+            group.submit(() ->
+            {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(20);
+                running.decrementAndGet();
+                return null;
+            });
+        }
+
+        group.shutdown();
+        assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(2, maxRunning.get());
+        assertEquals(10, group.getCompletedCount());
+        assertEquals(0, group.getQueueDepth());
+        assertTrue(group.getAverageWaitMillis() > 0, "Later tasks should have waited for a permit");
+    }
+
+
+    @Test
+    @DisplayName("Tasks should run on virtual threads named after the group, and be rejected after shutdown")
+    void testThreadsAndShutdown() throws Exception
+    {
+        TaskGroup group = ExecutorHandler.getTaskGroup("VirtualTest");
+        assertSame(group, ExecutorHandler.getTaskGroup("VirtualTest"));
+
+        Future<String> future = group.submit(() -> Thread.currentThread().getName() + ":" + Thread.currentThread().isVirtual());
+        String result = future.get(2, TimeUnit.SECONDS);
+        assertTrue(result.startsWith("VirtualTest-"));
+        assertTrue(result.endsWith(":true"));
+
+        group.shutdown();
+        assertTrue(group.awaitTermination(1, TimeUnit.SECONDS));
+        assertThrows(RejectedExecutionException.class, () -> group.submit(() -> {}));
+    }
+}
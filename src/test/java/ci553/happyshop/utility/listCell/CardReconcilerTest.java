@@ -0,0 +1,119 @@
+package ci553.happyshop.utility.listCell;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the keyed card reuse, pooling and in-place updates of CardReconciler, with StringBuilders in place of cards
+ */
+class CardReconcilerTest
+{
+    private record Item(long id, String name) {}
+
+    private final List<String> updates = new ArrayList<>();
+    private CardReconciler<Item, StringBuilder> reconciler;
+
+    @BeforeEach
+    void createReconciler()
+    {
+        reconciler = new CardReconciler<>(StringBuilder::new,
+                (card, item) ->
+                {
+                    card.setLength(0);
+                    card.append(item.name());
+                    updates.add(item.name());
+                },
+                Item::id, 1);
+    }
+
+
+    @Test
+    @DisplayName("An item's key should keep its card, updated only when the item is replaced")
+    void testKeyedCards()
+    {
+        Item speaker = new Item(1, "Speaker");
+        StringBuilder card = reconciler.acquire(speaker);
+        assertSame(card, reconciler.acquire(speaker));
+        assertEquals(List.of("Speaker"), updates);
+
+        Item discounted = new Item(1, "Speaker (sale)");
+        assertSame(card, reconciler.acquire(discounted));
+        assertEquals("Speaker (sale)", card.toString());
+        assertEquals(1, reconciler.getCreatedCount());
+    }
+
+
+    @Test
+    @DisplayName("Released cards should be pooled up to the limit and reused for new keys")
+    void testPool()
+    {
+        Item first = new Item(1, "Speaker");
+        Item second = new Item(2, "Headphones");
+        StringBuilder firstCard = reconciler.acquire(first);
+        reconciler.acquire(second);
+
+        reconciler.release(first);
+        reconciler.release(second);
+        assertEquals(1, reconciler.getPooledCount());
+        assertEquals(0, reconciler.getLiveCount());
+
+        StringBuilder reused = reconciler.acquire(new Item(3, "Charger"));
+        assertSame(firstCard, reused);
+        assertEquals("Charger", reused.toString());
+        assertEquals(2, reconciler.getCreatedCount());
+    }
+
+
+    @Test
+    @DisplayName("List changes should update live cards in place and report the first changed index")
+    void testReconcile()
+    {
+        ObservableList<Item> items = FXCollections.observableArrayList(
+                new Item(1, "Speaker"), new Item(2, "Headphones"), new Item(3, "Charger"));
+        items.forEach(reconciler::acquire);
+
+        List<Integer> firstChanged = new ArrayList<>();
+        items.addListener((ListChangeListener<Item>) change -> firstChanged.add(reconciler.reconcile(change)));
+
+        // Replacing an item updates its card without creating another
+        StringBuilder card = reconciler.getCard(items.get(1));
+        items.set(1, new Item(2, "Wireless Headphones"));
+        assertEquals("Wireless Headphones", card.toString());
+        assertEquals(3, reconciler.getCreatedCount());
+
+        // Sorting moves items but does not update any card
+        updates.clear();
+        FXCollections.sort(items, Comparator.comparing(Item::name));
+        assertTrue(updates.isEmpty());
+
+        items.remove(2);
+        assertEquals(List.of(1, 0, 2), firstChanged);
+    }
+
+
+    @Test
+    @DisplayName("Refreshing a key should redraw its live card with the same item")
+    void testRefresh()
+    {
+        Item speaker = new Item(1, "Speaker");
+        StringBuilder card = reconciler.acquire(speaker);
+        card.append(" (stale)");
+
+        assertTrue(reconciler.refresh(1L));
+        assertEquals("Speaker", card.toString());
+        assertEquals(List.of("Speaker", "Speaker"), updates);
+
+        reconciler.release(speaker);
+        assertFalse(reconciler.refresh(1L));
+    }
+}